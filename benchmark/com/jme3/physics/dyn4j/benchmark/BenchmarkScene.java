@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.benchmark;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.joint.RevoluteJoint;
+import org.dyn4j.geometry.Geometry;
+import org.dyn4j.geometry.Mass;
+import org.dyn4j.geometry.Vector2;
+
+import com.jme3.physics.dyn4j.PhysicsSpace;
+
+/**
+ * Canonical scenes used by the benchmarks. Each scene adds a static ground and about <code>bodyCount</code> dynamic
+ * bodies to the physics space.
+ * 
+ * @author H
+ */
+public enum BenchmarkScene {
+
+    /** Boxes stacked as a pyramid: many resting contacts. */
+    BOX_PYRAMID {
+        @Override
+        protected void createBodies(final PhysicsSpace physicsSpace, final int bodyCount) {
+            int rows = 1;
+            while (rows * (rows + 1) / 2 < bodyCount) {
+                rows++;
+            }
+
+            int created = 0;
+            for (int row = 0; row < rows && created < bodyCount; row++) {
+                final int columns = rows - row;
+                for (int column = 0; column < columns && created < bodyCount; column++) {
+                    final double x = (column - columns * 0.5) * BOX_SIZE * 1.05;
+                    final double y = BOX_SIZE * 0.5 + row * BOX_SIZE;
+                    physicsSpace.addBody(createBox(x, y));
+                    created++;
+                }
+            }
+        }
+    },
+
+    /** Circles falling from above: mostly awake bodies and new contacts. */
+    CIRCLE_RAIN {
+        @Override
+        protected void createBodies(final PhysicsSpace physicsSpace, final int bodyCount) {
+            final int columns = 40;
+            for (int i = 0; i < bodyCount; i++) {
+                final Body body = new Body();
+                body.addFixture(Geometry.createCircle(BOX_SIZE * 0.5));
+                body.setMass(Mass.Type.NORMAL);
+                body.translate((i % columns - columns * 0.5) * BOX_SIZE * 1.5, 5 + i / columns * BOX_SIZE * 1.5);
+                physicsSpace.addBody(body);
+            }
+        }
+    },
+
+    /** Chains of boxes linked by revolute joints, hanging from the ground. */
+    JOINT_CHAINS {
+        @Override
+        protected void createBodies(final PhysicsSpace physicsSpace, final int bodyCount) {
+            final int links = 20;
+            final int chains = Math.max(1, bodyCount / links);
+
+            for (int chain = 0; chain < chains; chain++) {
+                final double x = (chain - chains * 0.5) * BOX_SIZE * 3;
+
+                Body previous = null;
+                for (int link = 0; link < links; link++) {
+                    final Body body = createBox(x + link * BOX_SIZE, 30);
+                    physicsSpace.addBody(body);
+
+                    if (previous != null) {
+                        final Vector2 anchor = new Vector2(x + (link - 0.5) * BOX_SIZE, 30);
+                        physicsSpace.addJoint(new RevoluteJoint(previous, body, anchor));
+                    } else {
+                        body.setMass(Mass.Type.INFINITE);
+                    }
+                    previous = body;
+                }
+            }
+        }
+    },
+
+    /** Columns of boxes left to fall asleep before measuring: the cost of a settled world. */
+    SLEEPING_STACKS {
+        @Override
+        protected void createBodies(final PhysicsSpace physicsSpace, final int bodyCount) {
+            final int height = 10;
+            final int stacks = Math.max(1, bodyCount / height);
+
+            for (int stack = 0; stack < stacks; stack++) {
+                for (int level = 0; level < height; level++) {
+                    final double x = (stack - stacks * 0.5) * BOX_SIZE * 2;
+                    physicsSpace.addBody(createBox(x, BOX_SIZE * 0.5 + level * BOX_SIZE));
+                }
+            }
+        }
+
+        @Override
+        protected int getSettleSteps() {
+            return 600;
+        }
+    };
+
+    protected static final double BOX_SIZE = 1;
+    protected static final float TIME_STEP = 1f / 60f;
+
+    /**
+     * Creates the scene in the given physics space and steps it until it is in the state to measure.
+     * 
+     * @param physicsSpace
+     *            an empty physics space.
+     * @param bodyCount
+     *            the approximate number of dynamic bodies.
+     */
+    public void populate(final PhysicsSpace physicsSpace, final int bodyCount) {
+        final Body ground = new Body();
+        ground.addFixture(Geometry.createRectangle(1000, BOX_SIZE));
+        ground.translate(0, -BOX_SIZE * 0.5);
+        ground.setMass(Mass.Type.INFINITE);
+        physicsSpace.addBody(ground);
+
+        createBodies(physicsSpace, bodyCount);
+
+        for (int i = 0, steps = getSettleSteps(); i < steps; i++) {
+            physicsSpace.updateFixed(TIME_STEP);
+        }
+    }
+
+    protected abstract void createBodies(PhysicsSpace physicsSpace, int bodyCount);
+
+    protected int getSettleSteps() {
+        return 1;
+    }
+
+    protected static Body createBox(final double x, final double y) {
+        final Body body = new Body();
+        body.addFixture(Geometry.createSquare(BOX_SIZE));
+        body.setMass(Mass.Type.NORMAL);
+        body.translate(x, y);
+        return body;
+    }
+
+}
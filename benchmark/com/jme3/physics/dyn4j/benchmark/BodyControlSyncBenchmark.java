@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dyn4j.dynamics.Body;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.jme3.physics.dyn4j.PhysicsSpace;
+import com.jme3.physics.dyn4j.PhysicsSpatialSync;
+import com.jme3.physics.dyn4j.control.Dyn4jBodyControl;
+import com.jme3.scene.Node;
+
+/**
+ * Cost of synchronizing N spatials with their bodies through {@link Dyn4jBodyControl} or {@link PhysicsSpatialSync}.
+ * Instead of stepping the physics space, which would be measured too, the awake bodies are moved back and forth before
+ * each invocation so the spatials always have to be updated; sleeping bodies are left alone.
+ * 
+ * @author H
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BodyControlSyncBenchmark {
+
+    @Param({ "CIRCLE_RAIN", "SLEEPING_STACKS" })
+    public BenchmarkScene scene;
+
+    @Param({ "100", "1000", "10000" })
+    public int bodyCount;
+
+    private static final double OFFSET = 0.001;
+
+    private List<Body> bodies;
+    private Node rootNode;
+    private PhysicsSpatialSync spatialSync;
+    private double offset = OFFSET;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final PhysicsSpace physicsSpace = new PhysicsSpace(null, null);
+        this.scene.populate(physicsSpace, this.bodyCount);
+
+        this.rootNode = new Node("Benchmark Root Node");
+        this.bodies = physicsSpace.getBodies();
+        for (int i = 0, size = this.bodies.size(); i < size; i++) {
+            final Node node = new Node("Body " + i);
+            node.addControl(new Dyn4jBodyControl(this.bodies.get(i), physicsSpace));
+            this.rootNode.attachChild(node);
+        }
+
+        this.spatialSync = new PhysicsSpatialSync(physicsSpace);
+        for (int i = 0, size = this.bodies.size(); i < size; i++) {
+            this.spatialSync.add(this.bodies.get(i), new Node("Synced Body " + i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void moveBodies() {
+        this.offset = -this.offset;
+        for (int i = 0, size = this.bodies.size(); i < size; i++) {
+            final Body body = this.bodies.get(i);
+            if (!body.isStatic() && !body.isAsleep()) {
+                body.translate(this.offset, 0);
+            }
+        }
+    }
+
+    @Benchmark
+    public Node controlUpdate() {
+        this.rootNode.updateLogicalState(BenchmarkScene.TIME_STEP);
+        return this.rootNode;
+    }
+
+    @Benchmark
+    public PhysicsSpatialSync spatialSync() {
+        this.spatialSync.sync();
+        return this.spatialSync;
+    }
+
+}
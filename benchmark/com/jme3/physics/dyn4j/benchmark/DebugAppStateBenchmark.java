@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.jme3.physics.dyn4j.PhysicsSpace;
+import com.jme3.physics.dyn4j.debug.Dyn4jDebugAppState;
+
+/**
+ * Cost of {@link Dyn4jDebugAppState#update(float)} with N bodies and joints, once their debug spatials exist.
+ * 
+ * @author H
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DebugAppStateBenchmark {
+
+    @Param({ "BOX_PYRAMID", "JOINT_CHAINS" })
+    public BenchmarkScene scene;
+
+    @Param({ "100", "1000" })
+    public int bodyCount;
+
+    @Param({ "false", "true" })
+    public boolean batched;
+
+    private HeadlessDebugAppState debugAppState;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final PhysicsSpace physicsSpace = new PhysicsSpace(null, null);
+        this.scene.populate(physicsSpace, this.bodyCount);
+
+        this.debugAppState = new HeadlessDebugAppState(physicsSpace);
+        this.debugAppState.setBatched(this.batched);
+
+        // The first update creates the debug spatials.
+        this.debugAppState.update(BenchmarkScene.TIME_STEP);
+    }
+
+    @Benchmark
+    public Dyn4jDebugAppState update() {
+        this.debugAppState.update(BenchmarkScene.TIME_STEP);
+        return this.debugAppState;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dyn4j.geometry.Convex;
+import org.dyn4j.geometry.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.jme3.physics.dyn4j.debug.Dyn4jDebugShapeFactory;
+import com.jme3.scene.Node;
+
+/**
+ * Cost of creating the debug mesh of each supported shape with {@link Dyn4jDebugShapeFactory#getDebugShape(Convex)}.
+ * Without cache, no released mesh is kept and each call builds the mesh again.
+ * 
+ * @author H
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DebugShapeFactoryBenchmark {
+
+    public enum Shape {
+        POLYGON, CIRCLE, CAPSULE, ELLIPSE, HALF_ELLIPSE, SLICE;
+
+        private Convex create() {
+            switch (this) {
+            case CIRCLE:
+                return Geometry.createCircle(0.5);
+            case CAPSULE:
+                return Geometry.createCapsule(2, 1);
+            case ELLIPSE:
+                return Geometry.createEllipse(2, 1);
+            case HALF_ELLIPSE:
+                return Geometry.createHalfEllipse(2, 1);
+            case SLICE:
+                return Geometry.createSlice(1, Math.PI / 2);
+            default:
+                return Geometry.createUnitCirclePolygon(8, 1);
+            }
+        }
+    }
+
+    @Param({ "POLYGON", "CIRCLE", "CAPSULE", "ELLIPSE", "HALF_ELLIPSE", "SLICE" })
+    public Shape shape;
+
+    @Param({ "false", "true" })
+    public boolean cached;
+
+    private Dyn4jDebugShapeFactory debugShapeFactory;
+    private Convex convex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.debugShapeFactory = new Dyn4jDebugShapeFactory(HeadlessDebugAppState.createAssetManager());
+        this.convex = this.shape.create();
+        if (!this.cached) {
+            this.debugShapeFactory.setMaxUnusedMeshes(0);
+        }
+    }
+
+    @Benchmark
+    public Node getDebugShape() {
+        final Node node = this.debugShapeFactory.getDebugShape(this.convex);
+        this.debugShapeFactory.releaseDebugShape(node);
+        return node;
+    }
+
+}
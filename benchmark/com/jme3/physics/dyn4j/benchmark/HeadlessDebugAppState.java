@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.benchmark;
+
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.DesktopAssetManager;
+import com.jme3.physics.dyn4j.PhysicsSpace;
+import com.jme3.physics.dyn4j.debug.Dyn4jDebugAppState;
+import com.jme3.physics.dyn4j.debug.Dyn4jDebugShapeFactory;
+import com.jme3.scene.Node;
+
+/**
+ * Debug app state that can be updated without an application, renderer or view port. Only the scene graph side of
+ * the debug view is built.
+ * 
+ * @author H
+ */
+public class HeadlessDebugAppState extends Dyn4jDebugAppState {
+
+    public HeadlessDebugAppState(final PhysicsSpace space) {
+        this(space, createAssetManager());
+    }
+
+    public HeadlessDebugAppState(final PhysicsSpace space, final AssetManager assetManager) {
+        super(space);
+        this.assetManager = assetManager;
+        this.debugShapeFactory = new Dyn4jDebugShapeFactory(assetManager);
+    }
+
+    public static AssetManager createAssetManager() {
+        return new DesktopAssetManager(true);
+    }
+
+    public Node getPhysicsDebugRootNode() {
+        return this.physicsDebugRootNode;
+    }
+
+}
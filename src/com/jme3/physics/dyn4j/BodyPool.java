@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.geometry.Transform;
+
+/**
+ * Recycles the bodies of a {@link BodyTemplate}, for short lived bodies like bullets or sparks: despawned bodies are
+ * removed from the physics space and kept with their fixture and mass, then reset and added again on the next spawn
+ * instead of being allocated.
+ * <p>
+ * Pools are created by {@link PhysicsSpace#getBodyPool(BodyTemplate)} and must be used from the thread that updates
+ * the physics space, or through its command queue.
+ * 
+ * @author H
+ */
+public class BodyPool {
+
+    private static final int DEFAULT_MAX_FREE = 1024;
+
+    /** Marks the bodies of a pool, so despawning needs no lookup. */
+    static final class PooledBody extends Body {
+
+        final BodyPool pool;
+        boolean spawned = false;
+
+        PooledBody(final BodyPool pool) {
+            super(1);
+            this.pool = pool;
+        }
+
+    }
+
+    protected final PhysicsSpace physicsSpace;
+    protected final BodyTemplate template;
+
+    private PooledBody[] free = new PooledBody[16];
+    private int freeCount = 0;
+    protected int maxFree = DEFAULT_MAX_FREE;
+
+    // Stats
+    private int activeCount = 0;
+    private long createdCount = 0;
+    private long reusedCount = 0;
+
+    protected BodyPool(final PhysicsSpace physicsSpace, final BodyTemplate template) {
+        this.physicsSpace = physicsSpace;
+        this.template = template;
+    }
+
+    /**
+     * Adds a body of the template to the physics space, reused if one is free.
+     * 
+     * @param x
+     *            the position on x.
+     * @param y
+     *            the position on y.
+     * @param angle
+     *            the rotation in radians.
+     * @return the body.
+     */
+    public Body spawn(final double x, final double y, final double angle) {
+        final PooledBody body;
+        if (this.freeCount > 0) {
+            body = this.free[--this.freeCount];
+            this.free[this.freeCount] = null;
+            this.reusedCount++;
+        } else {
+            body = createBody();
+            this.createdCount++;
+        }
+
+        final Transform transform = body.getTransform();
+        transform.identity();
+        transform.rotate(angle);
+        transform.translate(x, y);
+
+        body.spawned = true;
+        this.activeCount++;
+        this.physicsSpace.addBody(body);
+        return body;
+    }
+
+    /**
+     * Removes a body of this pool from the physics space and keeps it for the next spawn.
+     * 
+     * @param body
+     *            the body.
+     * @return false if the body is not a spawned body of this pool.
+     */
+    public boolean despawn(final Body body) {
+        if (!(body instanceof PooledBody) || ((PooledBody) body).pool != this || !((PooledBody) body).spawned) {
+            return false;
+        }
+
+        final PooledBody pooledBody = (PooledBody) body;
+        this.physicsSpace.removeBody(pooledBody);
+        pooledBody.spawned = false;
+        this.activeCount--;
+
+        if (this.freeCount < this.maxFree) {
+            reset(pooledBody);
+            if (this.freeCount == this.free.length) {
+                final PooledBody[] grown = new PooledBody[this.free.length * 2];
+                System.arraycopy(this.free, 0, grown, 0, this.freeCount);
+                this.free = grown;
+            }
+            this.free[this.freeCount++] = pooledBody;
+        } else {
+            // Left to the garbage collector, the body index must not keep its spatial either.
+            this.physicsSpace.getBodyIndex().setSpatial(pooledBody, null);
+        }
+        return true;
+    }
+
+    private PooledBody createBody() {
+        final PooledBody body = new PooledBody(this);
+        this.template.configure(body);
+        return body;
+    }
+
+    /**
+     * Clears the state a body gathered while it was spawned. Fixture and mass are left as they are.
+     * 
+     * @param body
+     *            the body.
+     */
+    protected void reset(final Body body) {
+        body.setLinearVelocity(0, 0);
+        body.setAngularVelocity(0);
+        body.clearForce();
+        body.clearTorque();
+        body.clearAccumulatedForce();
+        body.clearAccumulatedTorque();
+        body.setActive(true);
+        body.setAsleep(false);
+        body.setUserData(null);
+    }
+
+    /**
+     * Creates free bodies in advance, e.g. while loading a level.
+     * 
+     * @param count
+     *            the number of free bodies to reach.
+     */
+    public void prefill(final int count) {
+        final int target = Math.min(count, this.maxFree);
+        while (this.freeCount < target) {
+            if (this.freeCount == this.free.length) {
+                final PooledBody[] grown = new PooledBody[this.free.length * 2];
+                System.arraycopy(this.free, 0, grown, 0, this.freeCount);
+                this.free = grown;
+            }
+            this.free[this.freeCount++] = createBody();
+            this.createdCount++;
+        }
+    }
+
+    public BodyTemplate getTemplate() {
+        return this.template;
+    }
+
+    /**
+     * Sets the maximum number of free bodies kept, despawned bodies above it are left to the garbage collector.
+     * 
+     * @param maxFree
+     *            the maximum number of free bodies.
+     */
+    public void setMaxFree(final int maxFree) {
+        this.maxFree = maxFree;
+    }
+
+    public int getMaxFree() {
+        return this.maxFree;
+    }
+
+    /**
+     * Returns the number of bodies spawned and not despawned yet.
+     * 
+     * @return the active count.
+     */
+    public int getActiveCount() {
+        return this.activeCount;
+    }
+
+    /**
+     * Returns the number of bodies waiting to be reused.
+     * 
+     * @return the free count.
+     */
+    public int getFreeCount() {
+        return this.freeCount;
+    }
+
+    /**
+     * Returns the number of bodies allocated by this pool since its creation.
+     * 
+     * @return the created count.
+     */
+    public long getCreatedCount() {
+        return this.createdCount;
+    }
+
+    /**
+     * Returns the number of spawns served by a free body instead of a new one.
+     * 
+     * @return the reused count.
+     */
+    public long getReusedCount() {
+        return this.reusedCount;
+    }
+
+}
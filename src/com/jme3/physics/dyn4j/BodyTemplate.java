@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import org.dyn4j.collision.Filter;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.geometry.Convex;
+import org.dyn4j.geometry.Mass;
+
+/**
+ * Description of the bodies spawned by a {@link BodyPool}: one fixture with a shape shared by all of them, its mass
+ * and the fixture and body properties. Changes only apply to bodies created afterwards.
+ * 
+ * @author H
+ */
+public class BodyTemplate {
+
+    protected final Convex shape;
+    protected final Mass.Type massType;
+
+    protected double density = BodyFixture.DEFAULT_DENSITY;
+    protected double friction = BodyFixture.DEFAULT_FRICTION;
+    protected double restitution = BodyFixture.DEFAULT_RESTITUTION;
+    protected Filter filter = Filter.DEFAULT_FILTER;
+    protected boolean sensor = false;
+
+    protected double linearDamping = Body.DEFAULT_LINEAR_DAMPING;
+    protected double angularDamping = Body.DEFAULT_ANGULAR_DAMPING;
+    protected double gravityScale = 1;
+    protected boolean bullet = false;
+
+    /**
+     * @param shape
+     *            the shape, shared by the fixtures of all the bodies so it must not be changed.
+     * @param massType
+     *            the mass type, the mass is computed from the shape and the density.
+     */
+    public BodyTemplate(final Convex shape, final Mass.Type massType) {
+        this.shape = shape;
+        this.massType = massType;
+    }
+
+    /**
+     * Gives a new body of a pool its fixture, mass and properties. Called once per body, not on reuse.
+     * 
+     * @param body
+     *            the new body, without fixture.
+     */
+    protected void configure(final Body body) {
+        final BodyFixture fixture = new BodyFixture(this.shape);
+        fixture.setDensity(this.density);
+        fixture.setFriction(this.friction);
+        fixture.setRestitution(this.restitution);
+        fixture.setFilter(this.filter);
+        fixture.setSensor(this.sensor);
+        body.addFixture(fixture);
+        body.setMass(this.massType);
+
+        body.setLinearDamping(this.linearDamping);
+        body.setAngularDamping(this.angularDamping);
+        body.setGravityScale(this.gravityScale);
+        body.setBullet(this.bullet);
+    }
+
+    public Convex getShape() {
+        return this.shape;
+    }
+
+    public Mass.Type getMassType() {
+        return this.massType;
+    }
+
+    public double getDensity() {
+        return this.density;
+    }
+
+    public void setDensity(final double density) {
+        this.density = density;
+    }
+
+    public double getFriction() {
+        return this.friction;
+    }
+
+    public void setFriction(final double friction) {
+        this.friction = friction;
+    }
+
+    public double getRestitution() {
+        return this.restitution;
+    }
+
+    public void setRestitution(final double restitution) {
+        this.restitution = restitution;
+    }
+
+    public Filter getFilter() {
+        return this.filter;
+    }
+
+    public void setFilter(final Filter filter) {
+        this.filter = filter;
+    }
+
+    public boolean isSensor() {
+        return this.sensor;
+    }
+
+    public void setSensor(final boolean sensor) {
+        this.sensor = sensor;
+    }
+
+    public double getLinearDamping() {
+        return this.linearDamping;
+    }
+
+    public void setLinearDamping(final double linearDamping) {
+        this.linearDamping = linearDamping;
+    }
+
+    public double getAngularDamping() {
+        return this.angularDamping;
+    }
+
+    public void setAngularDamping(final double angularDamping) {
+        this.angularDamping = angularDamping;
+    }
+
+    public double getGravityScale() {
+        return this.gravityScale;
+    }
+
+    public void setGravityScale(final double gravityScale) {
+        this.gravityScale = gravityScale;
+    }
+
+    public boolean isBullet() {
+        return this.bullet;
+    }
+
+    public void setBullet(final boolean bullet) {
+        this.bullet = bullet;
+    }
+
+}
@@ -31,6 +31,9 @@
  */
 package com.jme3.physics.dyn4j;
 
+import java.nio.FloatBuffer;
+
+import org.dyn4j.geometry.Transform;
 import org.dyn4j.geometry.Vector2;
 
 import com.jme3.math.Vector2f;
@@ -46,6 +49,23 @@ public class Converter {
         return new Vector3f(toFloat(from.x), toFloat(from.y), 0);
     }
 
+    /**
+     * Stores the vector in <code>store</code>, with z = 0.
+     * 
+     * @param from
+     *            the vector to convert.
+     * @param store
+     *            the vector to store the result in.
+     * @return store.
+     */
+    public static Vector3f toVector3f(final Vector2 from, final Vector3f store) {
+        return store.set(toFloat(from.x), toFloat(from.y), 0);
+    }
+
+    public static Vector2f toVector2f(final Vector2 from, final Vector2f store) {
+        return store.set(toFloat(from.x), toFloat(from.y));
+    }
+
     public static float toFloat(final double from) {
         // return new FloatingDecimal(from).floatValue();
         return (float) from;
@@ -59,6 +79,14 @@ public class Converter {
         return new Vector2(from.x, from.y);
     }
 
+    public static Vector2 toVector2(final Vector3f from, final Vector2 store) {
+        return store.set(from.x, from.y);
+    }
+
+    public static Vector2 toVector2(final Vector2f from, final Vector2 store) {
+        return store.set(from.x, from.y);
+    }
+
     public static Vector3f[] toVector3f(final Vector2[] vertices) {
         final Vector3f[] vectors = new Vector3f[vertices.length];
         for (int i = 0; i < vertices.length; i++) {
@@ -67,4 +95,61 @@ public class Converter {
         return vectors;
     }
 
+    /**
+     * Writes the vertices as x, y, 0 triplets in <code>store</code> from <code>offset</code>.
+     * 
+     * @param vertices
+     *            the vertices to convert.
+     * @param store
+     *            the array to store the result in, at least <code>offset + 3 * vertices.length</code> long.
+     * @param offset
+     *            the index of the first value.
+     * @return store.
+     */
+    public static float[] toFloatArray(final Vector2[] vertices, final float[] store, final int offset) {
+        int index = offset;
+        for (int i = 0; i < vertices.length; i++) {
+            store[index++] = toFloat(vertices[i].x);
+            store[index++] = toFloat(vertices[i].y);
+            store[index++] = 0;
+        }
+        return store;
+    }
+
+    /**
+     * Puts the vertices as x, y, 0 triplets in <code>store</code> from its current position, like a
+     * {@link com.jme3.scene.VertexBuffer.Type#Position} buffer.
+     * 
+     * @param vertices
+     *            the vertices to convert.
+     * @param store
+     *            the buffer to store the result in.
+     * @return store.
+     */
+    public static FloatBuffer toFloatBuffer(final Vector2[] vertices, final FloatBuffer store) {
+        for (int i = 0; i < vertices.length; i++) {
+            store.put(toFloat(vertices[i].x)).put(toFloat(vertices[i].y)).put(0);
+        }
+        return store;
+    }
+
+    /**
+     * Writes the translation and rotation of the transform as x, y, angle in <code>store</code> from
+     * <code>offset</code>.
+     * 
+     * @param transform
+     *            the transform to convert.
+     * @param store
+     *            the array to store the result in.
+     * @param offset
+     *            the index of the first value.
+     * @return store.
+     */
+    public static float[] toFloatArray(final Transform transform, final float[] store, final int offset) {
+        store[offset] = toFloat(transform.getTranslationX());
+        store[offset + 1] = toFloat(transform.getTranslationY());
+        store[offset + 2] = toFloat(transform.getRotation());
+        return store;
+    }
+
 }
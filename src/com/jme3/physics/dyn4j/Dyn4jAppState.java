@@ -31,15 +31,8 @@
  */
 package com.jme3.physics.dyn4j;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
 import org.dyn4j.collision.Bounds;
 import org.dyn4j.dynamics.Capacity;
-import org.dyn4j.dynamics.Settings;
 
 import com.jme3.app.Application;
 import com.jme3.app.state.AbstractAppState;
@@ -53,7 +46,7 @@ import com.jme3.renderer.RenderManager;
  */
 public class Dyn4jAppState extends AbstractAppState {
 
-    private static final long TIME_STEP_IN_MICROSECONDS = (long) (Settings.DEFAULT_STEP_FREQUENCY * 1000);
+    private static final float DEFAULT_TICK_RATE = 60f;
 
     /** See {@link Application} for details. */
     protected Application app = null;
@@ -65,27 +58,30 @@ public class Dyn4jAppState extends AbstractAppState {
 
     protected PhysicsSpace physicsSpace = null;
     protected float tpf = 0;
-    protected float tpfSum = 0;
 
     // MultiTreading Fields
     protected ThreadingType threadingType = null;
-    protected ScheduledThreadPoolExecutor executor;
+    protected PhysicsLoop physicsLoop = null;
+    protected PhysicsPipeline physicsPipeline = null;
+    protected PhysicsSteppingService steppingService = null;
+    protected PhysicsSpaceRegistration steppingRegistration = null;
 
     // Debug
     protected Dyn4jDebugAppState debugAppState = null;
     protected boolean debugEnabled = false;
+    protected boolean debugBatched = false;
 
-    private final Runnable parallelPhysicsUpdate = new Runnable() {
-        @Override
-        public void run() {
-            if (!isEnabled()) {
-                return;
-            }
+    // Headless server
+    protected boolean headless = false;
+    protected float tickRate = DEFAULT_TICK_RATE;
 
-            Dyn4jAppState.this.physicsSpace.updateFixed(Dyn4jAppState.this.tpfSum);
-            Dyn4jAppState.this.tpfSum = 0;
-        }
-    };
+    // Deterministic lockstep
+    protected boolean lockstepEnabled = false;
+    protected PhysicsLockstep lockstep = null;
+
+    // Batched spatial synchronization
+    protected boolean spatialSyncEnabled = false;
+    protected PhysicsSpatialSync spatialSync = null;
 
     public Dyn4jAppState() {
         this(null, null, ThreadingType.PARALLEL);
@@ -137,44 +133,69 @@ public class Dyn4jAppState extends AbstractAppState {
             return;
         }
 
-        if (this.threadingType == ThreadingType.PARALLEL) {
-            startPhysicsOnExecutor();
-        } else {
-            this.physicsSpace = new PhysicsSpace(this.initialCapacity, this.bounds);
+        this.physicsSpace = createPhysicsSpace();
+        if (this.headless) {
+            this.physicsSpace.setFixedTimeStep(1f / this.tickRate);
+        }
+        if (this.spatialSyncEnabled) {
+            this.spatialSync = new PhysicsSpatialSync(this.physicsSpace);
+        }
+
+        if (this.lockstepEnabled) {
+            // Frames are stepped from update(), never by other threads.
+            this.lockstep = new PhysicsLockstep(this.physicsSpace);
+        } else if (this.threadingType == ThreadingType.PARALLEL && this.steppingService != null) {
+            startPhysicsOnSteppingService();
+        } else if (this.threadingType == ThreadingType.PARALLEL) {
+            startPhysicsLoop();
+        } else if (this.threadingType == ThreadingType.PIPELINED) {
+            startPhysicsPipeline();
         }
 
         this.initialized = true;
     }
 
-    private void startPhysicsOnExecutor() {
-        if (this.executor != null) {
-            this.executor.shutdown();
-        }
-        this.executor = new ScheduledThreadPoolExecutor(1);
-
-        final Callable<Boolean> call = new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                Dyn4jAppState.this.physicsSpace = new PhysicsSpace(Dyn4jAppState.this.initialCapacity,
-                        Dyn4jAppState.this.bounds);
-                return true;
-            }
-        };
+    /**
+     * Creates the physics space of this app state. Override to use another implementation, like
+     * {@link PartitionedPhysicsSpace}.
+     * 
+     * @return the physics space.
+     */
+    protected PhysicsSpace createPhysicsSpace() {
+        return new PhysicsSpace(this.initialCapacity, this.bounds);
+    }
 
-        try {
-            this.executor.submit(call).get();
-        } catch (final Exception ex) {
-            Logger.getLogger(Dyn4jAppState.class.getName()).log(Level.SEVERE, null, ex);
+    private void startPhysicsLoop() {
+        if (this.physicsLoop != null) {
+            this.physicsLoop.stop();
         }
 
-        schedulePhysicsCalculationTask();
+        // Spatials are synchronized on the render thread while the world is being updated.
+        this.physicsSpace.setSnapshotEnabled(!this.headless);
+
+        this.physicsLoop = new PhysicsLoop(this.physicsSpace);
+        this.physicsLoop.setPaused(!isEnabled());
+        this.physicsLoop.start();
     }
 
-    private void schedulePhysicsCalculationTask() {
-        if (this.executor != null) {
-            this.executor.scheduleAtFixedRate(this.parallelPhysicsUpdate, 0l, TIME_STEP_IN_MICROSECONDS,
-                    TimeUnit.MICROSECONDS);
+    private void startPhysicsOnSteppingService() {
+        this.physicsSpace.setSnapshotEnabled(!this.headless);
+
+        this.steppingRegistration = this.steppingService.register(this.physicsSpace);
+        this.steppingRegistration.setPaused(!isEnabled());
+    }
+
+    private void startPhysicsPipeline() {
+        if (this.physicsPipeline != null) {
+            this.physicsPipeline.stop();
         }
+
+        this.physicsSpace.setSnapshotEnabled(!this.headless);
+
+        this.physicsPipeline = new PhysicsPipeline(this.physicsSpace);
+        // Without a render pass to interpolate for, the frame time is still stepped at the tick rate.
+        this.physicsPipeline.setFixedStepping(this.headless);
+        this.physicsPipeline.start();
     }
 
     // FIXME Remove this method but check how to implement tests
@@ -186,8 +207,8 @@ public class Dyn4jAppState extends AbstractAppState {
         }
 
         // Check if debugMode is enabled and start debugAppState.
-        if (this.debugEnabled) {
-            this.debugAppState = new Dyn4jDebugAppState(this.physicsSpace);
+        if (this.debugEnabled && !this.headless) {
+            this.debugAppState = createDebugAppState();
             stateManager.attach(this.debugAppState);
         }
         super.stateAttached(stateManager);
@@ -202,16 +223,50 @@ public class Dyn4jAppState extends AbstractAppState {
             return;
         }
 
+        // Nothing is rendered on a dedicated server.
+        if (!this.headless) {
+            updateDebugAppState();
+        }
+
+        this.tpf = tpf;
+
+        if (this.lockstep != null) {
+            this.lockstep.update(tpf);
+        } else if (this.physicsPipeline != null) {
+            // Hand over the step started in the last frame and start the next one right away.
+            this.physicsPipeline.awaitStep();
+            if (!this.headless) {
+                this.physicsSpace.acquireSnapshot();
+            }
+            this.physicsPipeline.startStep(tpf * this.physicsSpace.getSpeed());
+        } else if (this.headless && this.threadingType == ThreadingType.SEQUENTIAL) {
+            // There is no render pass to step from, consume the frame time in steps of the tick rate.
+            this.physicsSpace.updateInterpolated(tpf * this.physicsSpace.getSpeed());
+        } else if (this.physicsSpace != null && !this.headless) {
+            // Hand the transforms of the last finished step to the controls updated in this frame.
+            this.physicsSpace.acquireSnapshot();
+        }
+
+        // Before the scene graph update, like the body controls.
+        if (this.spatialSync != null) {
+            this.spatialSync.sync();
+        }
+    }
+
+    private Dyn4jDebugAppState createDebugAppState() {
+        final Dyn4jDebugAppState debugAppState = new Dyn4jDebugAppState(this.physicsSpace);
+        debugAppState.setBatched(this.debugBatched);
+        return debugAppState;
+    }
+
+    private void updateDebugAppState() {
         if (this.debugEnabled && this.debugAppState == null && this.physicsSpace != null) {
-            this.debugAppState = new Dyn4jDebugAppState(this.physicsSpace);
+            this.debugAppState = createDebugAppState();
             this.stateManager.attach(this.debugAppState);
         } else if (!this.debugEnabled && this.debugAppState != null) {
             this.stateManager.detach(this.debugAppState);
             this.debugAppState = null;
         }
-
-        this.tpf = tpf;
-        this.tpfSum += tpf;
     }
 
     /**
@@ -219,18 +274,22 @@ public class Dyn4jAppState extends AbstractAppState {
      */
     @Override
     public void render(final RenderManager rm) {
-        if (this.threadingType == ThreadingType.SEQUENTIAL) {
+        if (this.threadingType == ThreadingType.SEQUENTIAL && !this.headless && this.lockstep == null) {
             final float timeStep = isEnabled() ? this.tpf * this.physicsSpace.getSpeed() : 0;
-            this.physicsSpace.updateFixed(timeStep);
+            this.physicsSpace.update(timeStep);
         }
     }
 
     @Override
     public void setEnabled(final boolean enabled) {
-        if (enabled) {
-            schedulePhysicsCalculationTask();
-        } else if (this.executor != null) {
-            this.executor.remove(this.parallelPhysicsUpdate);
+        if (this.physicsLoop != null) {
+            this.physicsLoop.setPaused(!enabled);
+        }
+        if (this.steppingRegistration != null) {
+            this.steppingRegistration.setPaused(!enabled);
+        }
+        if (!enabled && this.physicsPipeline != null) {
+            this.physicsPipeline.awaitStep();
         }
         super.setEnabled(enabled);
     }
@@ -242,11 +301,26 @@ public class Dyn4jAppState extends AbstractAppState {
             this.debugAppState = null;
         }
 
-        if (this.executor != null) {
-            this.executor.shutdown();
-            this.executor = null;
+        if (this.physicsLoop != null) {
+            this.physicsLoop.stop();
+            this.physicsLoop = null;
+        }
+
+        if (this.physicsPipeline != null) {
+            this.physicsPipeline.stop();
+            this.physicsPipeline = null;
         }
 
+        if (this.steppingRegistration != null) {
+            this.steppingRegistration.unregister();
+            this.steppingRegistration = null;
+        }
+
+        this.lockstep = null;
+        if (this.spatialSync != null) {
+            this.spatialSync.clear();
+            this.spatialSync = null;
+        }
         this.physicsSpace.clear();
 
         super.cleanup();
@@ -256,6 +330,54 @@ public class Dyn4jAppState extends AbstractAppState {
         return this.physicsSpace;
     }
 
+    /**
+     * Returns the thread that steps the physics space in {@link ThreadingType#PARALLEL} mode.
+     * 
+     * @return the physics loop or null if physics is not updated in parallel.
+     */
+    public PhysicsLoop getPhysicsLoop() {
+        return this.physicsLoop;
+    }
+
+    /**
+     * Returns the thread that steps the physics space in {@link ThreadingType#PIPELINED} mode.
+     * 
+     * @return the physics pipeline or null if physics is not pipelined.
+     */
+    public PhysicsPipeline getPhysicsPipeline() {
+        return this.physicsPipeline;
+    }
+
+    /**
+     * Sets a stepping service shared with other app states. In {@link ThreadingType#PARALLEL} mode the physics space
+     * is then stepped by the service instead of its own thread. Must be set before the app state is attached.
+     * 
+     * @param steppingService
+     *            the stepping service or null to use a dedicated thread.
+     */
+    public void setSteppingService(final PhysicsSteppingService steppingService) {
+        this.steppingService = steppingService;
+    }
+
+    public PhysicsSteppingService getSteppingService() {
+        return this.steppingService;
+    }
+
+    /**
+     * Returns the registration of the physics space in the stepping service, with its step time accounting.
+     * 
+     * @return the registration or null if no stepping service is used.
+     */
+    public PhysicsSpaceRegistration getSteppingRegistration() {
+        return this.steppingRegistration;
+    }
+
+    /**
+     * Enables the debug view. Ignored in headless mode.
+     * 
+     * @param debugEnabled
+     *            true to show the debug view.
+     */
     public void setDebugEnabled(final boolean debugEnabled) {
         this.debugEnabled = debugEnabled;
     }
@@ -264,4 +386,111 @@ public class Dyn4jAppState extends AbstractAppState {
         return this.debugEnabled;
     }
 
+    /**
+     * Draws the debug view in batch, one line mesh per color, see {@link Dyn4jDebugAppState#setBatched(boolean)}.
+     * 
+     * @param debugBatched
+     *            true to draw the debug view in batch.
+     */
+    public void setDebugBatched(final boolean debugBatched) {
+        this.debugBatched = debugBatched;
+        if (this.debugAppState != null) {
+            this.debugAppState.setBatched(debugBatched);
+        }
+    }
+
+    public boolean isDebugBatched() {
+        return this.debugBatched;
+    }
+
+    /**
+     * Enables the headless mode, for dedicated servers running with {@link com.jme3.system.JmeContext.Type#Headless}.
+     * The physics space is stepped at {@link #getTickRate()}: from {@link #update(float)} in
+     * {@link ThreadingType#SEQUENTIAL} mode, by its own thread in {@link ThreadingType#PARALLEL} mode, and by the
+     * pipeline thread with the frame time in {@link ThreadingType#PIPELINED} mode, see
+     * {@link PhysicsPipeline#setFixedStepping(boolean)}. Nothing is done on render, no transform snapshot is published
+     * for the render thread and the debug app state is never attached. Must be set before the app state is attached.
+     * 
+     * @param headless
+     *            true to run without rendering.
+     */
+    public void setHeadless(final boolean headless) {
+        this.headless = headless;
+    }
+
+    public boolean isHeadless() {
+        return this.headless;
+    }
+
+    /**
+     * Sets the number of physics steps per second in headless mode, like 30, 60 or 120.
+     * 
+     * @param tickRate
+     *            the steps per second.
+     */
+    public void setTickRate(final float tickRate) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("Tick rate must be greater than zero.");
+        }
+        this.tickRate = tickRate;
+
+        if (this.headless && this.physicsSpace != null) {
+            this.physicsSpace.setFixedTimeStep(1f / tickRate);
+        }
+    }
+
+    public float getTickRate() {
+        return this.tickRate;
+    }
+
+    /**
+     * Enables the deterministic lockstep mode, see {@link PhysicsLockstep}. The physics space is then stepped one
+     * fixed step per confirmed frame from {@link #update(float)}, whatever the threading type, and changes to it must
+     * be scheduled with {@link #getLockstep()}. Must be set before the app state is attached.
+     * 
+     * @param lockstepEnabled
+     *            true to step in lockstep.
+     */
+    public void setLockstepEnabled(final boolean lockstepEnabled) {
+        this.lockstepEnabled = lockstepEnabled;
+    }
+
+    public boolean isLockstepEnabled() {
+        return this.lockstepEnabled;
+    }
+
+    /**
+     * Returns the lockstep used to schedule commands, confirm frames and compare checksums.
+     * 
+     * @return the lockstep or null if lockstep is not enabled or the app state is not attached.
+     */
+    public PhysicsLockstep getLockstep() {
+        return this.lockstep;
+    }
+
+    /**
+     * Enables the batched synchronization of spatials, see {@link PhysicsSpatialSync}: spatials registered in
+     * {@link #getSpatialSync()} are all updated in one loop at the end of {@link #update(float)}, without body
+     * controls. Must be set before the app state is attached.
+     * 
+     * @param spatialSyncEnabled
+     *            true to synchronize spatials in batch.
+     */
+    public void setSpatialSyncEnabled(final boolean spatialSyncEnabled) {
+        this.spatialSyncEnabled = spatialSyncEnabled;
+    }
+
+    public boolean isSpatialSyncEnabled() {
+        return this.spatialSyncEnabled;
+    }
+
+    /**
+     * Returns the registry of body and spatial pairs synchronized in batch.
+     * 
+     * @return the spatial sync or null if it is not enabled or the app state is not attached.
+     */
+    public PhysicsSpatialSync getSpatialSync() {
+        return this.spatialSync;
+    }
+
 }
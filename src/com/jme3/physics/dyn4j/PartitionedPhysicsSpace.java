@@ -0,0 +1,561 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dyn4j.collision.Bounds;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.dynamics.Capacity;
+import org.dyn4j.dynamics.Settings;
+import org.dyn4j.dynamics.World;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.Mass;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+
+/**
+ * Physics space that shards its bodies over several dyn4j {@link World}s and steps them in parallel, one task per
+ * world. It pays off for levels made of many areas that rarely interact.
+ * <p>
+ * The {@link Partitioner} decides the world of each body. Before each step, bodies of different worlds whose bounds,
+ * grown by the distance they can travel in the step, overlap are moved to the same world with everything jointed to
+ * them, so bodies never pass through each other at a partition border. After the step, bodies are migrated to the
+ * world their partitioner says, unless they are jointed or were close to another body. Jointed bodies always share a
+ * world.
+ * <p>
+ * Bodies with an infinite mass when they are added (static and kinematic bodies, like the ground) live in the first
+ * world and are mirrored in every other world by a proxy body sharing their fixtures, user data, transform and
+ * velocity. Contacts with them in the other worlds are reported with the proxy. Changing the mass type of a body
+ * between finite and infinite while it is in the space is not supported: remove it and add it again.
+ * <p>
+ * {@link #getBodies()} and {@link #getJoints()} return all the bodies and joints of all worlds, and
+ * {@link #getPhysicsWorld()} returns the first world. Listeners and settings of the other worlds are accessed with
+ * {@link #getWorld(int)}.
+ * 
+ * @author H
+ */
+public class PartitionedPhysicsSpace extends PhysicsSpace {
+
+    private static final Logger logger = Logger.getLogger(PartitionedPhysicsSpace.class.getName());
+
+    private static final AtomicInteger poolCount = new AtomicInteger();
+
+    protected final World[] worlds;
+    protected final Partitioner partitioner;
+
+    protected final Map<Body, Integer> partitions = new IdentityHashMap<Body, Integer>();
+
+    // Bodies with an infinite mass, in the first world, and their proxies in the other worlds by partition.
+    protected final List<Body> sharedBodies = new ArrayList<Body>();
+    protected final Map<Body, Body[]> proxies = new IdentityHashMap<Body, Body[]>();
+
+    // Bounds of the bodies sorted on x, reused by every step to find the bodies close to each other.
+    private BodyBounds[] bounds = new BodyBounds[0];
+    private int boundsCount = 0;
+    protected final List<Body> bodies = new ArrayList<Body>();
+    protected final List<Joint> joints = new ArrayList<Joint>();
+
+    protected final List<Body> readOnlyBodies = Collections.unmodifiableList(this.bodies);
+    protected final List<Joint> readOnlyJoints = Collections.unmodifiableList(this.joints);
+
+    protected ExecutorService executor;
+    private final List<WorldTask> tasks;
+
+    private static final class BodyBounds {
+
+        private Body body;
+        private double minX;
+        private double maxX;
+        private double minY;
+        private double maxY;
+        private boolean close;
+
+    }
+
+    private static final Comparator<BodyBounds> MIN_X_ORDER = new Comparator<BodyBounds>() {
+        @Override
+        public int compare(final BodyBounds bounds1, final BodyBounds bounds2) {
+            return Double.compare(bounds1.minX, bounds2.minX);
+        }
+    };
+
+    private final class WorldTask implements Callable<Boolean> {
+
+        private final World world;
+        private double time = 0;
+        private boolean fixed = false;
+
+        private WorldTask(final World world) {
+            this.world = world;
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            if (this.fixed) {
+                this.world.step(1, this.time);
+                return true;
+            }
+            return this.world.update(this.time);
+        }
+
+    }
+
+    public PartitionedPhysicsSpace(final Capacity initialCapacity, final Bounds bounds, final int partitionCount,
+            final Partitioner partitioner) {
+        super(initialCapacity, bounds);
+
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("Partition count must be at least 1.");
+        }
+
+        this.partitioner = partitioner;
+        this.worlds = new World[partitionCount];
+        this.tasks = new ArrayList<WorldTask>(partitionCount);
+
+        this.worlds[0] = getPhysicsWorld();
+        for (int i = 1; i < partitionCount; i++) {
+            this.worlds[i] = initialCapacity != null ? new World(initialCapacity, bounds) : new World(bounds);
+        }
+
+        for (final World world : this.worlds) {
+            this.tasks.add(new WorldTask(world));
+        }
+
+        final int threads = Math.min(partitionCount, Runtime.getRuntime().availableProcessors());
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final int pool = poolCount.incrementAndGet();
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jME3 Dyn4j Partition " + this.pool + "-"
+                        + this.threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void addBody(final Body body) {
+        if (body.getMass().isInfinite()) {
+            addSharedBody(body);
+        } else {
+            addBody(body, getTargetPartition(body));
+        }
+    }
+
+    private void addSharedBody(final Body body) {
+        final Body[] bodyProxies = new Body[this.worlds.length];
+        for (int i = 1; i < this.worlds.length; i++) {
+            final List<BodyFixture> fixtures = body.getFixtures();
+            final Body proxy = new Body(fixtures.size());
+            for (int j = 0; j < fixtures.size(); j++) {
+                proxy.addFixture(fixtures.get(j));
+            }
+            proxy.setMass(new Mass(body.getMass()));
+            proxy.setUserData(body.getUserData());
+            syncProxy(body, proxy);
+
+            this.worlds[i].addBody(proxy);
+            bodyProxies[i] = proxy;
+        }
+
+        this.proxies.put(body, bodyProxies);
+        this.sharedBodies.add(body);
+        addBody(body, 0);
+    }
+
+    private void addBody(final Body body, final int partition) {
+        this.worlds[partition].addBody(body);
+        this.partitions.put(body, partition);
+        this.bodies.add(body);
+        bodyAdded(body);
+    }
+
+    @Override
+    public boolean removeBody(final Body body, final boolean notify) {
+        final Integer partition = this.partitions.remove(body);
+        if (partition == null) {
+            return false;
+        }
+
+        // Joints of the body are removed by the world too.
+        final List<Joint> bodyJoints = body.getJoints();
+        this.joints.removeAll(bodyJoints);
+
+        this.bodies.remove(body);
+        this.previousTransforms.remove(body);
+        final Body[] bodyProxies = this.proxies.remove(body);
+        if (bodyProxies != null) {
+            this.sharedBodies.remove(body);
+            for (int i = 1; i < bodyProxies.length; i++) {
+                this.worlds[i].removeBody(bodyProxies[i], false);
+            }
+        }
+        final boolean removed = this.worlds[partition].removeBody(body, notify);
+        for (int i = 0; i < bodyJoints.size(); i++) {
+            jointRemoved(bodyJoints.get(i));
+        }
+        bodyRemoved(body);
+        return removed;
+    }
+
+    @Override
+    public void addJoint(final Joint joint) {
+        // Jointed bodies must be in the same world.
+        final int partition = join(joint.getBody1(), joint.getBody2());
+
+        this.worlds[partition].addJoint(joint);
+        this.joints.add(joint);
+        jointAdded(joint);
+    }
+
+    @Override
+    public boolean removeJoint(final Joint joint) {
+        final Integer partition = this.partitions.get(joint.getBody1());
+        if (partition == null || !this.joints.remove(joint)) {
+            return false;
+        }
+        this.worlds[partition].removeJoint(joint);
+        jointRemoved(joint);
+        return true;
+    }
+
+    @Override
+    protected void updateWorld(final float elapsedTime) {
+        syncProxies();
+        joinCloseBodies(elapsedTime);
+        runTasks(elapsedTime, false);
+        migrateBodies();
+    }
+
+    @Override
+    protected void stepWorld(final double stepTime) {
+        syncProxies();
+        joinCloseBodies(stepTime);
+        runTasks(stepTime, true);
+        migrateBodies();
+    }
+
+    /**
+     * Copies the transform and velocity of the bodies with an infinite mass to their proxies, so kinematic bodies
+     * move the same in all worlds.
+     */
+    private void syncProxies() {
+        for (int i = 0, size = this.sharedBodies.size(); i < size; i++) {
+            final Body body = this.sharedBodies.get(i);
+            if (!body.getMass().isInfinite()) {
+                throw new IllegalStateException("Body " + body.getId()
+                        + " has a finite mass now; remove it and add it again to change its mass type.");
+            }
+
+            final Body[] bodyProxies = this.proxies.get(body);
+            for (int j = 1; j < bodyProxies.length; j++) {
+                syncProxy(body, bodyProxies[j]);
+            }
+        }
+    }
+
+    private static void syncProxy(final Body body, final Body proxy) {
+        proxy.getTransform().set(body.getTransform());
+        proxy.setLinearVelocity(body.getLinearVelocity());
+        proxy.setAngularVelocity(body.getAngularVelocity());
+    }
+
+    /**
+     * Moves to the same world the bodies of different worlds that could touch during the next step. The bounds of a
+     * body are the disc it covers when it rotates, grown by the distance its velocity moves it in the step; they are
+     * swept along x to find the overlapping pairs.
+     */
+    private void joinCloseBodies(final double time) {
+        final int size = this.bodies.size() - this.sharedBodies.size();
+        if (this.bounds.length < size) {
+            final BodyBounds[] newBounds = Arrays.copyOf(this.bounds, Math.max(size, this.bounds.length * 2));
+            for (int i = this.bounds.length; i < newBounds.length; i++) {
+                newBounds[i] = new BodyBounds();
+            }
+            this.bounds = newBounds;
+        }
+
+        final double margin = this.worlds[0].getSettings().getLinearTolerance();
+        int count = 0;
+        for (int i = 0, bodyCount = this.bodies.size(); i < bodyCount; i++) {
+            final Body body = this.bodies.get(i);
+            if (body.getMass().isInfinite()) {
+                if (!this.proxies.containsKey(body)) {
+                    throw new IllegalStateException("Body " + body.getId()
+                            + " has an infinite mass now; remove it and add it again to change its mass type.");
+                }
+                continue;
+            }
+
+            final Transform transform = body.getTransform();
+            final double extent = body.getRotationDiscRadius() + body.getMass().getCenter().getMagnitude()
+                    + body.getLinearVelocity().getMagnitude() * time + margin;
+
+            final BodyBounds bodyBounds = this.bounds[count++];
+            bodyBounds.body = body;
+            bodyBounds.minX = transform.getTranslationX() - extent;
+            bodyBounds.maxX = transform.getTranslationX() + extent;
+            bodyBounds.minY = transform.getTranslationY() - extent;
+            bodyBounds.maxY = transform.getTranslationY() + extent;
+            bodyBounds.close = false;
+        }
+        this.boundsCount = count;
+
+        // Nearly sorted from the previous step, the sort is close to linear.
+        Arrays.sort(this.bounds, 0, count, MIN_X_ORDER);
+
+        for (int i = 0; i < count; i++) {
+            final BodyBounds bounds1 = this.bounds[i];
+            for (int j = i + 1; j < count && this.bounds[j].minX <= bounds1.maxX; j++) {
+                final BodyBounds bounds2 = this.bounds[j];
+                if (bounds2.minY <= bounds1.maxY && bounds1.minY <= bounds2.maxY) {
+                    bounds1.close = true;
+                    bounds2.close = true;
+                    if (this.partitions.get(bounds1.body).intValue() != this.partitions.get(bounds2.body).intValue()) {
+                        join(bounds1.body, bounds2.body);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the two bodies, and all the bodies jointed to them, to the same world. The first world is kept when one
+     * of them is in it, bodies jointed to a body with an infinite mass must stay with it.
+     * 
+     * @return the partition of both bodies.
+     */
+    private int join(final Body body1, final Body body2) {
+        final Integer partition1 = this.partitions.get(body1);
+        final Integer partition2 = this.partitions.get(body2);
+
+        final int partition;
+        if (partition1 == null || partition2 == null) {
+            partition = partition1 != null ? partition1 : partition2 != null ? partition2 : 0;
+        } else if (partition1 == 0 || partition2 == 0) {
+            partition = 0;
+        } else {
+            partition = partition1;
+        }
+
+        moveGroup(body1, partition);
+        moveGroup(body2, partition);
+        return partition;
+    }
+
+    @Override
+    protected void invalidateContacts() {
+        for (int i = 0; i < this.worlds.length; i++) {
+            this.worlds[i].setUpdateRequired(true);
+        }
+    }
+
+    @Override
+    protected void attachMetrics(final PhysicsMetrics stepMetrics) {
+        for (int i = 0; i < this.worlds.length; i++) {
+            stepMetrics.attach(this.worlds[i]);
+        }
+    }
+
+    private void runTasks(final double time, final boolean fixed) {
+        for (int i = 0; i < this.tasks.size(); i++) {
+            final WorldTask task = this.tasks.get(i);
+            task.time = time;
+            task.fixed = fixed;
+        }
+
+        try {
+            final List<Future<Boolean>> results = this.executor.invokeAll(this.tasks);
+            for (int i = 0; i < results.size(); i++) {
+                results.get(i).get();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException ex) {
+            logger.log(Level.SEVERE, "Partition step failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Moves the bodies that were far from any other body to the world their partitioner says. Bodies with an infinite
+     * mass are not in the bounds, they never move.
+     */
+    private void migrateBodies() {
+        for (int i = 0; i < this.boundsCount; i++) {
+            final BodyBounds bodyBounds = this.bounds[i];
+            final Body body = bodyBounds.body;
+            bodyBounds.body = null;
+
+            // Null when the body was removed during the step.
+            final Integer current = this.partitions.get(body);
+            if (bodyBounds.close || current == null) {
+                continue;
+            }
+
+            final int target = getTargetPartition(body);
+            if (target != current && body.getJoints().isEmpty()) {
+                this.worlds[current].removeBody(body, false);
+                this.worlds[target].addBody(body);
+                this.partitions.put(body, target);
+            }
+        }
+        this.boundsCount = 0;
+    }
+
+    /**
+     * Moves the body and all the bodies jointed to it, directly or not, to the given partition.
+     */
+    private void moveGroup(final Body body, final int partition) {
+        final Integer current = this.partitions.get(body);
+        if (current == null || current == partition) {
+            return;
+        }
+
+        final List<Joint> bodyJoints = body.getJoints();
+        this.worlds[current].removeBody(body, false);
+        this.worlds[partition].addBody(body);
+        this.partitions.put(body, partition);
+
+        // Removing the body removed its joints from the old world.
+        for (final Joint joint : bodyJoints) {
+            final Body other = joint.getBody1() == body ? joint.getBody2() : joint.getBody1();
+            moveGroup(other, partition);
+            this.worlds[partition].addJoint(joint);
+        }
+    }
+
+    private int getTargetPartition(final Body body) {
+        if (body.getMass().isInfinite()) {
+            return 0;
+        }
+
+        final int partition = this.partitioner.getPartition(body, this.worlds.length);
+        if (partition < 0 || partition >= this.worlds.length) {
+            throw new IllegalStateException(String.format("Partition %d out of range.", partition));
+        }
+        return partition;
+    }
+
+    @Override
+    public void clear() {
+        this.executor.shutdown();
+        this.partitions.clear();
+        this.sharedBodies.clear();
+        this.proxies.clear();
+        this.bodies.clear();
+        this.joints.clear();
+        super.clear();
+    }
+
+    @Override
+    public void setGravity(final double x, final double y) {
+        for (final World world : this.worlds) {
+            world.setGravity(new Vector2(x, y));
+        }
+    }
+
+    @Override
+    public void setSpeed(final float speed) {
+        this.speed = speed;
+        for (final World world : this.worlds) {
+            world.getSettings().setSleepTime(Settings.DEFAULT_STEP_FREQUENCY * speed);
+        }
+    }
+
+    @Override
+    public List<Body> getBodies() {
+        return this.readOnlyBodies;
+    }
+
+    @Override
+    public List<Joint> getJoints() {
+        return this.readOnlyJoints;
+    }
+
+    @Override
+    public int getBodyCount() {
+        return this.bodies.size();
+    }
+
+    @Override
+    public Body getBody(final int index) {
+        return this.bodies.get(index);
+    }
+
+    @Override
+    public int getJointCount() {
+        return this.joints.size();
+    }
+
+    @Override
+    public Joint getJoint(final int index) {
+        return this.joints.get(index);
+    }
+
+    public int getPartition(final Body body) {
+        final Integer partition = this.partitions.get(body);
+        return partition != null ? partition : -1;
+    }
+
+    public int getPartitionCount() {
+        return this.worlds.length;
+    }
+
+    public World getWorld(final int partition) {
+        return this.worlds[partition];
+    }
+
+    public Partitioner getPartitioner() {
+        return this.partitioner;
+    }
+
+}
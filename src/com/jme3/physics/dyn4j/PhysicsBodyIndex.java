@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.dyn4j.dynamics.Body;
+
+import com.jme3.scene.Spatial;
+import com.jme3.util.IntMap;
+
+/**
+ * Index of the bodies of a {@link PhysicsSpace}, kept up to date by its add and remove methods: every body gets a
+ * dense int handle, reused after the body is removed, and can be bound to an entity id and to the spatial showing it.
+ * All lookups are constant time and do not box.
+ * <p>
+ * Thread safe: bodies are added and removed on the thread stepping the space, which is not the render thread in
+ * {@link ThreadingType#PARALLEL} and {@link ThreadingType#PIPELINED} mode, while spatials
+ * are bound and looked up from the render thread.
+ * 
+ * @author H
+ */
+public class PhysicsBodyIndex {
+
+    public static final int NO_ENTITY = Integer.MIN_VALUE;
+
+    private static final class Entry {
+
+        final Body body;
+        final int handle;
+        int entityId = NO_ENTITY;
+        Spatial spatial = null;
+
+        Entry(final Body body, final int handle) {
+            this.body = body;
+            this.handle = handle;
+        }
+
+    }
+
+    private final Map<Body, Entry> entries = new IdentityHashMap<Body, Entry>();
+    private final IntMap<Entry> entities = new IntMap<Entry>();
+    private final Map<Spatial, Entry> spatials = new IdentityHashMap<Spatial, Entry>();
+
+    // Spatials bound to bodies that are not in the physics space, bound when they are added: bodies whose add is
+    // queued and despawned bodies kept by their pool.
+    private final Map<Body, Spatial> pendingSpatials = new IdentityHashMap<Body, Spatial>();
+
+    private Entry[] handles = new Entry[64];
+    private int handleCount = 0;
+    private int[] freeHandles = new int[16];
+    private int freeHandleCount = 0;
+
+    protected synchronized void add(final Body body) {
+        if (this.entries.containsKey(body)) {
+            return;
+        }
+
+        final int handle;
+        if (this.freeHandleCount > 0) {
+            handle = this.freeHandles[--this.freeHandleCount];
+        } else {
+            if (this.handleCount == this.handles.length) {
+                this.handles = Arrays.copyOf(this.handles, this.handles.length * 2);
+            }
+            handle = this.handleCount++;
+        }
+
+        final Entry entry = new Entry(body, handle);
+        this.handles[handle] = entry;
+        this.entries.put(body, entry);
+
+        final Spatial spatial = this.pendingSpatials.remove(body);
+        if (spatial != null) {
+            setSpatial(body, spatial);
+        }
+    }
+
+    protected synchronized void remove(final Body body) {
+        final Entry entry = this.entries.remove(body);
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.entityId != NO_ENTITY) {
+            this.entities.remove(entry.entityId);
+        }
+        if (entry.spatial != null) {
+            this.spatials.remove(entry.spatial);
+            // Only pooled bodies are known to come back, and their pool drops the binding when it drops the body.
+            if (body instanceof BodyPool.PooledBody) {
+                this.pendingSpatials.put(body, entry.spatial);
+            }
+        }
+
+        this.handles[entry.handle] = null;
+        if (this.freeHandleCount == this.freeHandles.length) {
+            this.freeHandles = Arrays.copyOf(this.freeHandles, this.freeHandles.length * 2);
+        }
+        this.freeHandles[this.freeHandleCount++] = entry.handle;
+    }
+
+    protected synchronized void clear() {
+        this.entries.clear();
+        this.entities.clear();
+        this.spatials.clear();
+        this.pendingSpatials.clear();
+        Arrays.fill(this.handles, 0, this.handleCount, null);
+        this.handleCount = 0;
+        this.freeHandleCount = 0;
+    }
+
+    /**
+     * Returns the handle of a body, valid until it is removed.
+     * 
+     * @param body
+     *            the body.
+     * @return the handle or -1 if the body is not in the physics space.
+     */
+    public synchronized int getHandle(final Body body) {
+        final Entry entry = this.entries.get(body);
+        return entry != null ? entry.handle : -1;
+    }
+
+    /**
+     * Returns the body of a handle.
+     * 
+     * @param handle
+     *            the handle.
+     * @return the body or null if no body has this handle.
+     */
+    public synchronized Body getBody(final int handle) {
+        if (handle < 0 || handle >= this.handleCount) {
+            return null;
+        }
+        final Entry entry = this.handles[handle];
+        return entry != null ? entry.body : null;
+    }
+
+    /**
+     * Returns the number of handles ever given, an upper bound for arrays indexed by handle.
+     * 
+     * @return the handle count.
+     */
+    public synchronized int getHandleCount() {
+        return this.handleCount;
+    }
+
+    /**
+     * Binds a body of the physics space to an entity id, replacing its previous id.
+     * 
+     * @param body
+     *            the body.
+     * @param entityId
+     *            the entity id, or {@link #NO_ENTITY} to unbind.
+     * @return false if the body is not in the physics space.
+     */
+    public synchronized boolean setEntityId(final Body body, final int entityId) {
+        final Entry entry = this.entries.get(body);
+        if (entry == null) {
+            return false;
+        }
+
+        if (entry.entityId != NO_ENTITY) {
+            this.entities.remove(entry.entityId);
+        }
+        entry.entityId = entityId;
+        if (entityId != NO_ENTITY) {
+            final Entry previous = this.entities.put(entityId, entry);
+            if (previous != null && previous != entry) {
+                previous.entityId = NO_ENTITY;
+            }
+        }
+        return true;
+    }
+
+    public synchronized int getEntityId(final Body body) {
+        final Entry entry = this.entries.get(body);
+        return entry != null ? entry.entityId : NO_ENTITY;
+    }
+
+    public synchronized Body getBodyByEntityId(final int entityId) {
+        final Entry entry = this.entities.get(entityId);
+        return entry != null ? entry.body : null;
+    }
+
+    /**
+     * Binds a body to the spatial showing it, replacing its previous spatial. Done by
+     * {@link com.jme3.physics.dyn4j.control.Dyn4jBodyControl} when it is added to a spatial. A body that is not in the
+     * physics space, like one whose add is still queued, is bound when it is added. Removing a body drops its binding,
+     * except for despawned bodies kept by their {@link BodyPool}.
+     * 
+     * @param body
+     *            the body.
+     * @param spatial
+     *            the spatial, or null to unbind.
+     * @return false if the body is not in the physics space yet.
+     */
+    public synchronized boolean setSpatial(final Body body, final Spatial spatial) {
+        final Entry entry = this.entries.get(body);
+        if (entry == null) {
+            if (spatial != null) {
+                this.pendingSpatials.put(body, spatial);
+            } else {
+                this.pendingSpatials.remove(body);
+            }
+            return false;
+        }
+
+        if (entry.spatial != null) {
+            this.spatials.remove(entry.spatial);
+        }
+        entry.spatial = spatial;
+        if (spatial != null) {
+            final Entry previous = this.spatials.put(spatial, entry);
+            if (previous != null && previous != entry) {
+                previous.spatial = null;
+            }
+        }
+        return true;
+    }
+
+    public synchronized Spatial getSpatial(final Body body) {
+        final Entry entry = this.entries.get(body);
+        return entry != null ? entry.spatial : this.pendingSpatials.get(body);
+    }
+
+    /**
+     * Returns the body bound to a spatial, e.g. a picked one.
+     * 
+     * @param spatial
+     *            the spatial.
+     * @return the body or null if none is bound to it.
+     */
+    public synchronized Body getBody(final Spatial spatial) {
+        final Entry entry = this.spatials.get(spatial);
+        return entry != null ? entry.body : null;
+    }
+
+    public synchronized boolean contains(final Body body) {
+        return this.entries.containsKey(body);
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.Vector2;
+
+/**
+ * Queue of changes to a {@link PhysicsSpace} that can be filled from any thread without blocking. The queued commands
+ * are applied in order, in one pass, at the start of the next physics step, so they never race with the world update.
+ * 
+ * @author H
+ */
+public class PhysicsCommandQueue {
+
+    private enum CommandType {
+        ADD_BODY, REMOVE_BODY, ADD_JOINT, REMOVE_JOINT, APPLY_FORCE, APPLY_FORCE_AT_POINT, APPLY_IMPULSE,
+        APPLY_IMPULSE_AT_POINT, SET_LINEAR_VELOCITY, SET_ANGULAR_VELOCITY
+    }
+
+    private static final class Command {
+
+        private final CommandType type;
+        private final Body body;
+        private final Joint joint;
+        private final double x;
+        private final double y;
+        private final double pointX;
+        private final double pointY;
+
+        private Command(final CommandType type, final Body body, final Joint joint, final double x, final double y,
+                final double pointX, final double pointY) {
+            this.type = type;
+            this.body = body;
+            this.joint = joint;
+            this.x = x;
+            this.y = y;
+            this.pointX = pointX;
+            this.pointY = pointY;
+        }
+
+    }
+
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<Command>();
+
+    public void addBody(final Body body) {
+        enqueue(CommandType.ADD_BODY, body, null, 0, 0, 0, 0);
+    }
+
+    public void removeBody(final Body body) {
+        enqueue(CommandType.REMOVE_BODY, body, null, 0, 0, 0, 0);
+    }
+
+    public void addJoint(final Joint joint) {
+        enqueue(CommandType.ADD_JOINT, null, joint, 0, 0, 0, 0);
+    }
+
+    public void removeJoint(final Joint joint) {
+        enqueue(CommandType.REMOVE_JOINT, null, joint, 0, 0, 0, 0);
+    }
+
+    public void applyForce(final Body body, final Vector2 force) {
+        enqueue(CommandType.APPLY_FORCE, body, null, force.x, force.y, 0, 0);
+    }
+
+    public void applyForce(final Body body, final Vector2 force, final Vector2 point) {
+        enqueue(CommandType.APPLY_FORCE_AT_POINT, body, null, force.x, force.y, point.x, point.y);
+    }
+
+    public void applyImpulse(final Body body, final Vector2 impulse) {
+        enqueue(CommandType.APPLY_IMPULSE, body, null, impulse.x, impulse.y, 0, 0);
+    }
+
+    public void applyImpulse(final Body body, final Vector2 impulse, final Vector2 point) {
+        enqueue(CommandType.APPLY_IMPULSE_AT_POINT, body, null, impulse.x, impulse.y, point.x, point.y);
+    }
+
+    public void setLinearVelocity(final Body body, final double x, final double y) {
+        enqueue(CommandType.SET_LINEAR_VELOCITY, body, null, x, y, 0, 0);
+    }
+
+    public void setAngularVelocity(final Body body, final double angularVelocity) {
+        enqueue(CommandType.SET_ANGULAR_VELOCITY, body, null, angularVelocity, 0, 0, 0);
+    }
+
+    private void enqueue(final CommandType type, final Body body, final Joint joint, final double x, final double y,
+            final double pointX, final double pointY) {
+        this.commands.offer(new Command(type, body, joint, x, y, pointX, pointY));
+    }
+
+    public boolean isEmpty() {
+        return this.commands.isEmpty();
+    }
+
+    /**
+     * Applies all the queued commands to the physics space, in the order they were queued. Must only be called from
+     * the thread that updates the physics world.
+     * 
+     * @param physicsSpace
+     *            the physics space to apply the commands to.
+     * @return the number of applied commands.
+     */
+    public int drain(final PhysicsSpace physicsSpace) {
+        int count = 0;
+
+        Command command;
+        while ((command = this.commands.poll()) != null) {
+            apply(physicsSpace, command);
+            count++;
+        }
+
+        return count;
+    }
+
+    private void apply(final PhysicsSpace physicsSpace, final Command command) {
+        switch (command.type) {
+        case ADD_BODY:
+            physicsSpace.addBody(command.body);
+            break;
+        case REMOVE_BODY:
+            physicsSpace.removeBody(command.body);
+            break;
+        case ADD_JOINT:
+            physicsSpace.addJoint(command.joint);
+            break;
+        case REMOVE_JOINT:
+            physicsSpace.removeJoint(command.joint);
+            break;
+        case APPLY_FORCE:
+            command.body.applyForce(new Vector2(command.x, command.y));
+            break;
+        case APPLY_FORCE_AT_POINT:
+            command.body.applyForce(new Vector2(command.x, command.y), new Vector2(command.pointX, command.pointY));
+            break;
+        case APPLY_IMPULSE:
+            command.body.applyImpulse(new Vector2(command.x, command.y));
+            break;
+        case APPLY_IMPULSE_AT_POINT:
+            command.body.applyImpulse(new Vector2(command.x, command.y), new Vector2(command.pointX, command.pointY));
+            break;
+        case SET_LINEAR_VELOCITY:
+            command.body.setLinearVelocity(command.x, command.y);
+            break;
+        case SET_ANGULAR_VELOCITY:
+            command.body.setAngularVelocity(command.x);
+            break;
+        default:
+            break;
+        }
+    }
+
+}
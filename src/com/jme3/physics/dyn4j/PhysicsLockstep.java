@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.PriorityQueue;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+
+/**
+ * Deterministic lockstep stepping of a {@link PhysicsSpace}, for multiplayer games where every peer runs the same
+ * simulation from the same inputs.
+ * <p>
+ * The simulation only depends on the frame counter: each frame applies the commands scheduled for it, ordered by
+ * order key and then by the order they were scheduled, and performs exactly one step of
+ * {@link PhysicsSpace#getFixedTimeStep()}. Frames are only stepped up to the last confirmed frame, the one for which
+ * the inputs of all peers are known. Elapsed time only decides when the frames are stepped, never how.
+ * <p>
+ * After each frame a checksum of the state of all bodies is kept in a short history, to be compared with the ones of
+ * the other peers, so a desync is found on the frame it happens.
+ * <p>
+ * Peers must start from the same bodies and joints, added in the same order. Once stepping, every change to the
+ * physics space must be scheduled here: the {@link PhysicsSpace#getCommandQueue()} is applied at no particular frame
+ * and must not be used. dyn4j uses {@link Math}, so the results are only bit identical between peers running the same
+ * Java and dyn4j versions on the same kind of CPU.
+ * 
+ * @author H
+ */
+public class PhysicsLockstep {
+
+    private static final int DEFAULT_CHECKSUM_HISTORY = 128;
+
+    private static final long HASH_SEED = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    protected final PhysicsSpace physicsSpace;
+
+    protected long frame = 0;
+    protected volatile long confirmedFrame = -1;
+    protected float accumulator = 0;
+
+    // Guarded by commands
+    protected final PriorityQueue<ScheduledCommand> commands = new PriorityQueue<ScheduledCommand>();
+    protected long commandSequence = 0;
+    protected long appliedFrame = -1;
+
+    protected final long[] checksums;
+
+    private final Vector2 rotationAxis = new Vector2();
+
+    public PhysicsLockstep(final PhysicsSpace physicsSpace) {
+        this(physicsSpace, DEFAULT_CHECKSUM_HISTORY);
+    }
+
+    /**
+     * @param physicsSpace
+     *            the physics space to step.
+     * @param checksumHistory
+     *            the number of frames to keep the checksum of.
+     */
+    public PhysicsLockstep(final PhysicsSpace physicsSpace, final int checksumHistory) {
+        if (checksumHistory < 1) {
+            throw new IllegalArgumentException("Checksum history must be at least 1.");
+        }
+        this.physicsSpace = physicsSpace;
+        this.checksums = new long[checksumHistory];
+    }
+
+    /**
+     * Schedules a command for the start of the given frame. Commands of the same frame are applied by ascending order
+     * key, like the id of the peer that sent them, and then in the order they were scheduled. Can be called from any
+     * thread.
+     * 
+     * @param frame
+     *            the frame to apply the command in.
+     * @param orderKey
+     *            the order of the command within the frame.
+     * @param command
+     *            the command.
+     * @throws IllegalStateException
+     *             if the commands of the frame have already been applied.
+     */
+    public void schedule(final long frame, final int orderKey, final LockstepCommand command) {
+        synchronized (this.commands) {
+            if (frame <= this.appliedFrame) {
+                throw new IllegalStateException("The commands of frame " + frame + " have already been applied.");
+            }
+            this.commands.add(new ScheduledCommand(frame, orderKey, this.commandSequence++, command));
+        }
+    }
+
+    /**
+     * Confirms that all the commands up to the given frame have been scheduled, so it can be stepped. Can be called
+     * from any thread.
+     * 
+     * @param confirmedFrame
+     *            the last frame that can be stepped.
+     */
+    public void confirmFrame(final long confirmedFrame) {
+        if (confirmedFrame > this.confirmedFrame) {
+            this.confirmedFrame = confirmedFrame;
+        }
+    }
+
+    /**
+     * Accumulates the elapsed time and steps the frames that are due, without going past the confirmed frame and
+     * performing at most {@link PhysicsSpace#getMaxSubSteps()} frames.
+     * 
+     * @param elapsedTime
+     *            the elapsed time in seconds.
+     * @return the number of frames stepped.
+     */
+    public int update(final float elapsedTime) {
+        final float fixedTimeStep = this.physicsSpace.getFixedTimeStep();
+        final int maxSubSteps = this.physicsSpace.getMaxSubSteps();
+
+        if (elapsedTime > 0) {
+            // Waiting for confirmations must not build up a burst of frames.
+            this.accumulator = Math.min(this.accumulator + elapsedTime, maxSubSteps * fixedTimeStep);
+        }
+
+        final long available = this.confirmedFrame + 1 - this.frame;
+        final int steps = (int) Math.min(Math.min((long) (this.accumulator / fixedTimeStep), maxSubSteps),
+                Math.max(available, 0));
+
+        for (int i = 0; i < steps; i++) {
+            stepFrame();
+        }
+        this.accumulator = Math.max(this.accumulator - steps * fixedTimeStep, 0);
+
+        return steps;
+    }
+
+    /**
+     * Applies the commands of the current frame, steps the physics space once and records the checksum of the frame.
+     * Does not check the confirmed frame.
+     */
+    public void stepFrame() {
+        applyCommands();
+        this.physicsSpace.step(1);
+
+        this.checksums[(int) (this.frame % this.checksums.length)] = computeChecksum();
+        this.frame++;
+    }
+
+    private void applyCommands() {
+        while (true) {
+            final ScheduledCommand scheduled;
+            synchronized (this.commands) {
+                final ScheduledCommand next = this.commands.peek();
+                if (next == null || next.frame > this.frame) {
+                    this.appliedFrame = this.frame;
+                    return;
+                }
+                scheduled = this.commands.poll();
+            }
+            scheduled.command.apply(this.physicsSpace);
+        }
+    }
+
+    /**
+     * Computes the checksum of the transforms, velocities and sleep state of all bodies, in the order they were added.
+     * It is computed from the exact bits of the values, so any difference is a desync.
+     * 
+     * @return the checksum.
+     */
+    public long computeChecksum() {
+        // By index, getBodies() copies the list of the world.
+        final int bodyCount = this.physicsSpace.getBodyCount();
+        final Vector2 axis = this.rotationAxis;
+
+        long hash = HASH_SEED;
+        for (int i = 0; i < bodyCount; i++) {
+            final Body body = this.physicsSpace.getBody(i);
+            final Transform transform = body.getTransform();
+            final Vector2 velocity = body.getLinearVelocity();
+
+            // The rotated x axis gives the cosine and sine of the transform without rounding.
+            axis.set(1, 0);
+            transform.transformR(axis);
+
+            hash = mix(hash, transform.getTranslationX());
+            hash = mix(hash, transform.getTranslationY());
+            hash = mix(hash, axis.x);
+            hash = mix(hash, axis.y);
+            hash = mix(hash, velocity.x);
+            hash = mix(hash, velocity.y);
+            hash = mix(hash, body.getAngularVelocity());
+            hash = (hash ^ (body.isAsleep() ? 1 : 0)) * HASH_PRIME;
+        }
+        return finish(hash ^ bodyCount);
+    }
+
+    private static long mix(final long hash, final double value) {
+        return (hash ^ Double.doubleToRawLongBits(value)) * HASH_PRIME;
+    }
+
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Returns true if the checksum of the frame is still in the history.
+     * 
+     * @param frame
+     *            the frame.
+     * @return true if the checksum is known.
+     */
+    public boolean hasChecksum(final long frame) {
+        return frame >= 0 && frame < this.frame && frame >= this.frame - this.checksums.length;
+    }
+
+    /**
+     * Returns the checksum of the state after the given frame.
+     * 
+     * @param frame
+     *            the frame.
+     * @return the checksum.
+     * @throws IllegalArgumentException
+     *             if the checksum is no longer (or not yet) in the history.
+     */
+    public long getChecksum(final long frame) {
+        if (!hasChecksum(frame)) {
+            throw new IllegalArgumentException("No checksum for frame " + frame + ".");
+        }
+        return this.checksums[(int) (frame % this.checksums.length)];
+    }
+
+    /**
+     * Compares the checksum of a frame with the one computed by another peer.
+     * 
+     * @param frame
+     *            the frame.
+     * @param checksum
+     *            the checksum of the other peer.
+     * @return true if the checksum is known and differs, that is, the simulations have diverged.
+     */
+    public boolean isDesynchronized(final long frame, final long checksum) {
+        return hasChecksum(frame) && getChecksum(frame) != checksum;
+    }
+
+    /**
+     * Returns the next frame to step.
+     * 
+     * @return the frame counter.
+     */
+    public long getFrame() {
+        return this.frame;
+    }
+
+    public long getConfirmedFrame() {
+        return this.confirmedFrame;
+    }
+
+    public PhysicsSpace getPhysicsSpace() {
+        return this.physicsSpace;
+    }
+
+    private static final class ScheduledCommand implements Comparable<ScheduledCommand> {
+
+        private final long frame;
+        private final int orderKey;
+        private final long sequence;
+        private final LockstepCommand command;
+
+        private ScheduledCommand(final long frame, final int orderKey, final long sequence,
+                final LockstepCommand command) {
+            this.frame = frame;
+            this.orderKey = orderKey;
+            this.sequence = sequence;
+            this.command = command;
+        }
+
+        @Override
+        public int compareTo(final ScheduledCommand other) {
+            if (this.frame != other.frame) {
+                return this.frame < other.frame ? -1 : 1;
+            }
+            if (this.orderKey != other.orderKey) {
+                return this.orderKey < other.orderKey ? -1 : 1;
+            }
+            return this.sequence < other.sequence ? -1 : this.sequence > other.sequence ? 1 : 0;
+        }
+
+    }
+
+}
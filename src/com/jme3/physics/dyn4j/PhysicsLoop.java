@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Dedicated thread that steps a {@link PhysicsSpace} at its fixed time step, paced with {@link System#nanoTime()}.
+ * Elapsed time is scaled by {@link PhysicsSpace#getSpeed()} and accumulated, the time left after the steps is
+ * published as the interpolation alpha of the space. Readers of the snapshots advance it until the next step, see
+ * {@link PhysicsSpace#acquireSnapshot()}.
+ * <p>
+ * When the thread falls behind (a long step, a GC pause, a hitch of the host) it catches up with at most
+ * {@link #getMaxSubSteps()} steps per wake-up and drops the rest of the lost time, instead of bunching up executions
+ * until the simulation never catches up again. Jitter and overruns are recorded so they can be monitored.
+ * 
+ * @author H
+ */
+public class PhysicsLoop implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(PhysicsLoop.class.getName());
+
+    private static final int DEFAULT_MAX_SUB_STEPS = 5;
+
+    // Below this remaining time the thread yields instead of parking, parking is not precise enough.
+    private static final long SPIN_THRESHOLD_NANOS = 200000l;
+
+    private static final float JITTER_SMOOTHING = 0.05f;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    protected final PhysicsSpace physicsSpace;
+
+    protected volatile int maxSubSteps = DEFAULT_MAX_SUB_STEPS;
+    protected volatile boolean paused = false;
+    protected volatile boolean running = false;
+
+    protected Thread thread = null;
+
+    // Metrics, written by the physics thread only.
+    protected volatile long stepCount = 0;
+    protected volatile long overrunCount = 0;
+    protected volatile long droppedStepCount = 0;
+    protected volatile long lastJitterNanos = 0;
+    protected volatile long maxJitterNanos = 0;
+    protected volatile double averageJitterNanos = 0;
+    protected volatile long lastStepDurationNanos = 0;
+    protected volatile long maxStepDurationNanos = 0;
+
+    public PhysicsLoop(final PhysicsSpace physicsSpace) {
+        this.physicsSpace = physicsSpace;
+    }
+
+    /**
+     * Starts the physics thread. Does nothing if it is already running.
+     */
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+
+        this.running = true;
+        this.thread = new Thread(this, "jME3 Dyn4j Physics " + threadCount.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the physics thread and waits for the current step to finish.
+     */
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+
+        this.running = false;
+        LockSupport.unpark(this.thread);
+
+        if (Thread.currentThread() != this.thread) {
+            try {
+                this.thread.join();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.thread = null;
+    }
+
+    @Override
+    public void run() {
+        long lastTime = System.nanoTime();
+
+        // Simulated time not stepped yet, in seconds.
+        double accumulator = 0;
+
+        while (this.running) {
+            final long now = System.nanoTime();
+            final double speed = this.physicsSpace.getSpeed();
+            final double stepTime = this.physicsSpace.getFixedTimeStep();
+
+            if (this.paused || speed <= 0) {
+                // Time is frozen, check again in a step.
+                lastTime = now;
+                LockSupport.parkNanos(getStepNanos());
+                continue;
+            }
+
+            accumulator += (now - lastTime) / 1000000000d * speed;
+            lastTime = now;
+
+            if (accumulator < stepTime) {
+                final long remaining = (long) ((stepTime - accumulator) / speed * 1000000000d);
+                if (remaining > SPIN_THRESHOLD_NANOS) {
+                    LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+                } else {
+                    Thread.yield();
+                }
+                continue;
+            }
+
+            recordJitter((long) ((accumulator - stepTime) / speed * 1000000000d));
+
+            // Steps due in the accumulated time, capped to avoid the spiral of death.
+            int steps = (int) Math.min(accumulator / stepTime, Integer.MAX_VALUE);
+            final int maxSteps = this.maxSubSteps;
+            if (steps > maxSteps) {
+                this.overrunCount++;
+                this.droppedStepCount += steps - maxSteps;
+                steps = maxSteps;
+
+                // Forget the time that has been dropped.
+                accumulator = steps * stepTime;
+            }
+            accumulator -= steps * stepTime;
+
+            step(steps, (float) (accumulator / stepTime));
+        }
+    }
+
+    private void step(final int steps, final float interpolationAlpha) {
+        final long start = System.nanoTime();
+
+        try {
+            this.physicsSpace.step(steps, interpolationAlpha);
+        } catch (final RuntimeException ex) {
+            logger.log(Level.SEVERE, "Physics step failed", ex);
+        }
+
+        final long duration = System.nanoTime() - start;
+        this.lastStepDurationNanos = duration;
+        if (duration > this.maxStepDurationNanos) {
+            this.maxStepDurationNanos = duration;
+        }
+        this.stepCount += steps;
+    }
+
+    private void recordJitter(final long jitter) {
+        this.lastJitterNanos = jitter;
+        if (jitter > this.maxJitterNanos) {
+            this.maxJitterNanos = jitter;
+        }
+        this.averageJitterNanos += (jitter - this.averageJitterNanos) * JITTER_SMOOTHING;
+    }
+
+    private long getStepNanos() {
+        return Math.max((long) (this.physicsSpace.getFixedTimeStep() * 1000000000d), 1l);
+    }
+
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    public void setPaused(final boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * Sets the maximum number of steps performed in one wake-up to catch up with lost time. The remaining lost time
+     * is dropped and counted as an overrun.
+     * 
+     * @param maxSubSteps
+     *            the maximum number of steps per wake-up, at least 1.
+     */
+    public void setMaxSubSteps(final int maxSubSteps) {
+        if (maxSubSteps < 1) {
+            throw new IllegalArgumentException("Max sub steps must be at least 1.");
+        }
+        this.maxSubSteps = maxSubSteps;
+    }
+
+    public int getMaxSubSteps() {
+        return this.maxSubSteps;
+    }
+
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    /**
+     * Returns the number of wake-ups that had more steps due than {@link #getMaxSubSteps()}.
+     * 
+     * @return the number of overruns.
+     */
+    public long getOverrunCount() {
+        return this.overrunCount;
+    }
+
+    public long getDroppedStepCount() {
+        return this.droppedStepCount;
+    }
+
+    /**
+     * Returns how late the last wake-up was compared to its scheduled time.
+     * 
+     * @return the jitter in nanoseconds.
+     */
+    public long getLastJitterNanos() {
+        return this.lastJitterNanos;
+    }
+
+    public long getMaxJitterNanos() {
+        return this.maxJitterNanos;
+    }
+
+    public double getAverageJitterNanos() {
+        return this.averageJitterNanos;
+    }
+
+    public long getLastStepDurationNanos() {
+        return this.lastStepDurationNanos;
+    }
+
+    public long getMaxStepDurationNanos() {
+        return this.maxStepDurationNanos;
+    }
+
+    /**
+     * Resets the maximum jitter and step duration.
+     */
+    public void resetMaxMetrics() {
+        this.maxJitterNanos = 0;
+        this.maxStepDurationNanos = 0;
+    }
+
+}
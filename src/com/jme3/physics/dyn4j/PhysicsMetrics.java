@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.World;
+
+/**
+ * Metrics of the steps of a {@link PhysicsSpace}: step duration and its histogram, time of each phase, and body,
+ * contact, joint and island counts. Enabled with {@link PhysicsSpace#setMetricsEnabled(boolean)}.
+ * <p>
+ * The values are written by the thread that steps the space and can be read from any thread, through the getters,
+ * through a {@link PhysicsMetricsListener} or through JMX after {@link #registerMBean(String)}. When the space has
+ * several worlds stepped in parallel (see {@link PartitionedPhysicsSpace}) the phase times, contacts and islands are
+ * the sums of all worlds, while the step time is the elapsed time of the whole step.
+ * 
+ * @author H
+ */
+public class PhysicsMetrics implements PhysicsMetricsMBean {
+
+    private static final Logger logger = Logger.getLogger(PhysicsMetrics.class.getName());
+
+    public static final String MBEAN_DOMAIN = "com.jme3.physics.dyn4j";
+
+    private static final long[] STEP_HISTOGRAM_BOUNDS = { 250, 500, 1000, 2000, 4000, 8000, 16000, 33000 };
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    protected final List<PhysicsStepProfiler> profilers = new ArrayList<PhysicsStepProfiler>();
+    protected final List<PhysicsMetricsListener> listeners = new CopyOnWriteArrayList<PhysicsMetricsListener>();
+
+    protected final AtomicLongArray stepHistogram = new AtomicLongArray(STEP_HISTOGRAM_BOUNDS.length + 1);
+    protected volatile long stepCount = 0;
+    protected volatile long totalStepNanos = 0;
+    protected volatile long lastStepNanos = 0;
+    protected volatile long maxStepNanos = 0;
+    protected volatile long lastBroadphaseNanos = 0;
+    protected volatile long lastNarrowphaseNanos = 0;
+    protected volatile long lastSolverNanos = 0;
+    protected volatile long lastContinuousCollisionNanos = 0;
+    protected volatile int bodyCount = 0;
+    protected volatile int contactCount = 0;
+    protected volatile int jointCount = 0;
+    protected volatile int islandCount = 0;
+    protected volatile double sleepingRatio = 0;
+
+    protected ObjectName objectName = null;
+
+    /**
+     * Starts measuring the steps of the world. Must be called while the world is not being stepped.
+     * 
+     * @param world
+     *            the world.
+     */
+    public void attach(final World world) {
+        final PhysicsStepProfiler profiler = new PhysicsStepProfiler(world);
+        profiler.install();
+        this.profilers.add(profiler);
+    }
+
+    /**
+     * Stops measuring all the attached worlds. Must be called while they are not being stepped.
+     */
+    public void detach() {
+        for (int i = 0, size = this.profilers.size(); i < size; i++) {
+            this.profilers.get(i).uninstall();
+        }
+        this.profilers.clear();
+    }
+
+    /**
+     * Collects the values of the step that started at <code>startNanos</code>, if any world has been stepped, and
+     * notifies the listeners.
+     * 
+     * @param physicsSpace
+     *            the measured physics space.
+     * @param startNanos
+     *            the {@link System#nanoTime()} before the step.
+     */
+    protected void record(final PhysicsSpace physicsSpace, final long startNanos) {
+        boolean stepped = false;
+        long broadphase = 0;
+        long narrowphase = 0;
+        long solver = 0;
+        long continuousCollision = 0;
+        int contacts = 0;
+        int islands = 0;
+
+        for (int i = 0, size = this.profilers.size(); i < size; i++) {
+            final PhysicsStepProfiler profiler = this.profilers.get(i);
+            if (profiler.pollStepped()) {
+                stepped = true;
+                broadphase += profiler.getLastBroadphaseNanos();
+                narrowphase += profiler.getLastNarrowphaseNanos();
+                solver += profiler.getLastSolverNanos();
+                continuousCollision += profiler.getLastTimeOfImpactNanos();
+                contacts += profiler.getLastContactCount();
+                islands += profiler.countIslands();
+            }
+        }
+
+        if (!stepped) {
+            return;
+        }
+
+        final long stepNanos = System.nanoTime() - startNanos;
+
+        // By index, getBodies() and getJoints() copy the lists of the world.
+        final int bodyCount = physicsSpace.getBodyCount();
+        int dynamicBodies = 0;
+        int sleepingBodies = 0;
+        for (int i = 0; i < bodyCount; i++) {
+            final Body body = physicsSpace.getBody(i);
+            if (body.isDynamic()) {
+                dynamicBodies++;
+                if (body.isAsleep()) {
+                    sleepingBodies++;
+                }
+            }
+        }
+
+        this.lastStepNanos = stepNanos;
+        this.totalStepNanos += stepNanos;
+        if (stepNanos > this.maxStepNanos) {
+            this.maxStepNanos = stepNanos;
+        }
+        this.stepHistogram.incrementAndGet(getHistogramBucket(stepNanos / 1000));
+        this.lastBroadphaseNanos = broadphase;
+        this.lastNarrowphaseNanos = narrowphase;
+        this.lastSolverNanos = solver;
+        this.lastContinuousCollisionNanos = continuousCollision;
+        this.bodyCount = bodyCount;
+        this.contactCount = contacts;
+        this.jointCount = physicsSpace.getJointCount();
+        this.islandCount = islands;
+        this.sleepingRatio = dynamicBodies > 0 ? (double) sleepingBodies / dynamicBodies : 0;
+        this.stepCount++;
+
+        for (final PhysicsMetricsListener listener : this.listeners) {
+            listener.stepMeasured(this);
+        }
+    }
+
+    private static int getHistogramBucket(final long stepMicros) {
+        for (int i = 0; i < STEP_HISTOGRAM_BOUNDS.length; i++) {
+            if (stepMicros < STEP_HISTOGRAM_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return STEP_HISTOGRAM_BOUNDS.length;
+    }
+
+    public void addListener(final PhysicsMetricsListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final PhysicsMetricsListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server as
+     * <code>com.jme3.physics.dyn4j:type=PhysicsMetrics,name=&lt;name&gt;</code>.
+     * 
+     * @param name
+     *            the name of the physics space, to tell several spaces apart.
+     */
+    public synchronized void registerMBean(final String name) {
+        unregisterMBean();
+
+        try {
+            final ObjectName newObjectName = new ObjectName(MBEAN_DOMAIN + ":type=PhysicsMetrics,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+            this.objectName = newObjectName;
+        } catch (final JMException e) {
+            logger.log(Level.WARNING, "Could not register the physics metrics MBean " + name, e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (this.objectName == null) {
+            return;
+        }
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+        } catch (final JMException e) {
+            logger.log(Level.WARNING, "Could not unregister the physics metrics MBean " + this.objectName, e);
+        }
+        this.objectName = null;
+    }
+
+    public synchronized ObjectName getObjectName() {
+        return this.objectName;
+    }
+
+    @Override
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    public long getLastStepNanos() {
+        return this.lastStepNanos;
+    }
+
+    public long getMaxStepNanos() {
+        return this.maxStepNanos;
+    }
+
+    public long getLastBroadphaseNanos() {
+        return this.lastBroadphaseNanos;
+    }
+
+    public long getLastNarrowphaseNanos() {
+        return this.lastNarrowphaseNanos;
+    }
+
+    /**
+     * Returns the time spent building and solving the islands in the last step. dyn4j has no hook around the solver,
+     * so it is the step time not spent in the other phases.
+     * 
+     * @return the solver time in nanoseconds.
+     */
+    public long getLastSolverNanos() {
+        return this.lastSolverNanos;
+    }
+
+    public long getLastContinuousCollisionNanos() {
+        return this.lastContinuousCollisionNanos;
+    }
+
+    @Override
+    public double getLastStepTime() {
+        return this.lastStepNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getAverageStepTime() {
+        final long steps = this.stepCount;
+        return steps > 0 ? this.totalStepNanos / NANOS_PER_MILLI / steps : 0;
+    }
+
+    @Override
+    public double getMaxStepTime() {
+        return this.maxStepNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastBroadphaseTime() {
+        return this.lastBroadphaseNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastNarrowphaseTime() {
+        return this.lastNarrowphaseNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastSolverTime() {
+        return this.lastSolverNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLastContinuousCollisionTime() {
+        return this.lastContinuousCollisionNanos / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public int getBodyCount() {
+        return this.bodyCount;
+    }
+
+    @Override
+    public int getContactCount() {
+        return this.contactCount;
+    }
+
+    @Override
+    public int getJointCount() {
+        return this.jointCount;
+    }
+
+    @Override
+    public int getIslandCount() {
+        return this.islandCount;
+    }
+
+    /**
+     * Returns the ratio of dynamic bodies that were asleep after the last step.
+     * 
+     * @return the sleeping ratio, between 0 and 1.
+     */
+    @Override
+    public double getSleepingRatio() {
+        return this.sleepingRatio;
+    }
+
+    @Override
+    public long[] getStepHistogramBounds() {
+        return STEP_HISTOGRAM_BOUNDS.clone();
+    }
+
+    @Override
+    public long[] getStepHistogram() {
+        final long[] result = new long[this.stepHistogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.stepHistogram.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Resets the step count, the average and max step times and the histogram.
+     */
+    @Override
+    public void reset() {
+        this.stepCount = 0;
+        this.totalStepNanos = 0;
+        this.maxStepNanos = 0;
+        for (int i = 0; i < this.stepHistogram.length(); i++) {
+            this.stepHistogram.set(i, 0);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+/**
+ * JMX management interface of {@link PhysicsMetrics}. Times are in milliseconds.
+ * 
+ * @author H
+ */
+public interface PhysicsMetricsMBean {
+
+    long getStepCount();
+
+    double getLastStepTime();
+
+    double getAverageStepTime();
+
+    double getMaxStepTime();
+
+    double getLastBroadphaseTime();
+
+    double getLastNarrowphaseTime();
+
+    double getLastSolverTime();
+
+    double getLastContinuousCollisionTime();
+
+    int getBodyCount();
+
+    int getContactCount();
+
+    int getJointCount();
+
+    int getIslandCount();
+
+    double getSleepingRatio();
+
+    /**
+     * Returns the upper bound of each bucket of the step duration histogram, in microseconds. The last bucket has no
+     * upper bound and is not included.
+     * 
+     * @return the bucket bounds.
+     */
+    long[] getStepHistogramBounds();
+
+    /**
+     * Returns the number of steps in each bucket of the step duration histogram. It has one more element than
+     * {@link #getStepHistogramBounds()}, for the steps longer than the last bound.
+     * 
+     * @return the step counts.
+     */
+    long[] getStepHistogram();
+
+    void reset();
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Physics thread for {@link ThreadingType#PIPELINED} mode. Each frame the render thread waits for the step started in
+ * the previous frame, takes its snapshot and immediately starts the next step, so physics for frame N+1 runs while
+ * frame N is being updated and rendered.
+ * <p>
+ * The rendered transforms are always one frame old: {@link #getFrameLatency()}. In exchange physics and rendering
+ * fully overlap, and the frame only waits for physics when a step takes longer than the rest of the frame (see
+ * {@link #getLastStallNanos()}).
+ * 
+ * @author H
+ */
+public class PhysicsPipeline implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(PhysicsPipeline.class.getName());
+
+    private static final int FRAME_LATENCY = 1;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    protected final PhysicsSpace physicsSpace;
+
+    private final Semaphore stepRequested = new Semaphore(0);
+    private final Semaphore stepFinished = new Semaphore(0);
+
+    protected volatile boolean running = false;
+    protected Thread thread = null;
+
+    protected volatile boolean fixedStepping = false;
+
+    // Written by the caller before releasing the physics thread.
+    private float elapsedTime = 0;
+    private boolean stepInFlight = false;
+
+    // Metrics
+    protected long frameCount = 0;
+    protected long lastStallNanos = 0;
+    protected long totalStallNanos = 0;
+    protected volatile long lastStepDurationNanos = 0;
+
+    public PhysicsPipeline(final PhysicsSpace physicsSpace) {
+        this.physicsSpace = physicsSpace;
+    }
+
+    /**
+     * Starts the physics thread. Does nothing if it is already running.
+     */
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+
+        this.running = true;
+        this.thread = new Thread(this, "jME3 Dyn4j Physics Pipeline " + threadCount.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Waits for the step in flight and stops the physics thread.
+     */
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+
+        awaitStep();
+
+        this.running = false;
+        this.stepRequested.release();
+
+        try {
+            this.thread.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.thread = null;
+    }
+
+    /**
+     * Starts the next step on the physics thread. Must be called from the render thread, after {@link #awaitStep()}.
+     * 
+     * @param elapsedTime
+     *            the time to advance the physics space, see {@link PhysicsSpace#update(float)} and
+     *            {@link #setFixedStepping(boolean)}.
+     */
+    public void startStep(final float elapsedTime) {
+        if (this.stepInFlight) {
+            throw new IllegalStateException("Previous step has not been awaited.");
+        }
+
+        this.elapsedTime = elapsedTime;
+        this.stepInFlight = true;
+        this.stepRequested.release();
+    }
+
+    /**
+     * Waits until the step started by {@link #startStep(float)} has finished and its snapshot has been published.
+     * Returns immediately if there is no step in flight.
+     */
+    public void awaitStep() {
+        if (!this.stepInFlight) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        this.stepFinished.acquireUninterruptibly();
+        this.stepInFlight = false;
+
+        this.lastStallNanos = System.nanoTime() - start;
+        this.totalStallNanos += this.lastStallNanos;
+        this.frameCount++;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            this.stepRequested.acquireUninterruptibly();
+            if (!this.running) {
+                return;
+            }
+
+            final long start = System.nanoTime();
+            try {
+                if (this.fixedStepping) {
+                    this.physicsSpace.updateInterpolated(this.elapsedTime);
+                } else {
+                    this.physicsSpace.update(this.elapsedTime);
+                }
+            } catch (final RuntimeException ex) {
+                logger.log(Level.SEVERE, "Physics step failed", ex);
+            } finally {
+                this.lastStepDurationNanos = System.nanoTime() - start;
+                this.stepFinished.release();
+            }
+        }
+    }
+
+    /**
+     * Consumes the elapsed time of each frame in steps of {@link PhysicsSpace#getFixedTimeStep()}, see
+     * {@link PhysicsSpace#updateInterpolated(float)}, even when interpolation is not enabled. Otherwise the physics
+     * space is updated with {@link PhysicsSpace#update(float)}, at the step frequency of its world when interpolation
+     * is not enabled. Used in headless mode to step at the tick rate.
+     * 
+     * @param fixedStepping
+     *            true to step at the fixed time step of the physics space.
+     */
+    public void setFixedStepping(final boolean fixedStepping) {
+        this.fixedStepping = fixedStepping;
+    }
+
+    public boolean isFixedStepping() {
+        return this.fixedStepping;
+    }
+
+    public boolean isStepInFlight() {
+        return this.stepInFlight;
+    }
+
+    /**
+     * Returns how many frames the rendered transforms are behind the simulation.
+     * 
+     * @return the frame latency.
+     */
+    public int getFrameLatency() {
+        return FRAME_LATENCY;
+    }
+
+    public long getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * Returns how long the render thread had to wait for the last step, zero when physics fully overlapped with the
+     * frame.
+     * 
+     * @return the stall time in nanoseconds.
+     */
+    public long getLastStallNanos() {
+        return this.lastStallNanos;
+    }
+
+    public long getTotalStallNanos() {
+        return this.totalStallNanos;
+    }
+
+    public long getLastStepDurationNanos() {
+        return this.lastStepDurationNanos;
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.geometry.Transform;
+
+import com.jme3.math.FastMath;
+
+/**
+ * Translation and rotation of all the bodies of a physics world at the end of a step, stored in primitive arrays. For
+ * every body the transform before the step is stored too, so it can be interpolated with
+ * {@link #getInterpolationAlpha()}. The alpha is published with the timestamp of the step and advanced by the reader
+ * with the time elapsed since then, so spatials keep moving between two steps.
+ * <p>
+ * Instances are owned by {@link PhysicsSnapshotBuffer}, which hands them to one writer and one reader at a time.
+ * 
+ * @author H
+ */
+public class PhysicsSnapshot {
+
+    private static final int STRIDE = 6;
+    private static final int PREVIOUS_X = 0;
+    private static final int PREVIOUS_Y = 1;
+    private static final int PREVIOUS_ANGLE = 2;
+    private static final int X = 3;
+    private static final int Y = 4;
+    private static final int ANGLE = 5;
+
+    protected Body[] bodies;
+    protected float[] transforms;
+    protected int bodyCount = 0;
+    protected float interpolationAlpha = 1;
+    protected float publishedAlpha = 1;
+    protected long timestamp = 0;
+    protected long stepNanos = 0;
+
+    protected volatile long sequence = 0;
+
+    // Reader side lookup, only built when a body is not found at its previous index.
+    private final Map<Body, Integer> indices = new IdentityHashMap<Body, Integer>();
+    private boolean indicesValid = false;
+
+    public PhysicsSnapshot(final int initialCapacity) {
+        final int capacity = Math.max(initialCapacity, 1);
+        this.bodies = new Body[capacity];
+        this.transforms = new float[capacity * STRIDE];
+    }
+
+    /**
+     * Copies the transforms of the bodies of the physics space in this snapshot. Must only be called by the writer.
+     * 
+     * @param physicsSpace
+     *            the physics space, also used to get the previous transforms when interpolation is enabled.
+     */
+    protected void write(final PhysicsSpace physicsSpace) {
+        final int size = physicsSpace.getBodyCount();
+        ensureCapacity(size);
+
+        final boolean interpolate = physicsSpace.isInterpolationEnabled();
+
+        for (int i = 0; i < size; i++) {
+            final Body body = physicsSpace.getBody(i);
+            final Transform transform = body.getTransform();
+            final int offset = i * STRIDE;
+
+            this.transforms[offset + X] = Converter.toFloat(transform.getTranslationX());
+            this.transforms[offset + Y] = Converter.toFloat(transform.getTranslationY());
+            this.transforms[offset + ANGLE] = Converter.toFloat(transform.getRotation());
+
+            final Transform previous = interpolate ? physicsSpace.getPreviousTransform(body) : null;
+            if (previous != null) {
+                this.transforms[offset + PREVIOUS_X] = Converter.toFloat(previous.getTranslationX());
+                this.transforms[offset + PREVIOUS_Y] = Converter.toFloat(previous.getTranslationY());
+                this.transforms[offset + PREVIOUS_ANGLE] = Converter.toFloat(previous.getRotation());
+            } else {
+                this.transforms[offset + PREVIOUS_X] = this.transforms[offset + X];
+                this.transforms[offset + PREVIOUS_Y] = this.transforms[offset + Y];
+                this.transforms[offset + PREVIOUS_ANGLE] = this.transforms[offset + ANGLE];
+            }
+
+            this.bodies[i] = body;
+        }
+
+        // Release references to bodies that are not in the world anymore.
+        for (int i = size; i < this.bodyCount; i++) {
+            this.bodies[i] = null;
+        }
+
+        this.bodyCount = size;
+        this.publishedAlpha = interpolate ? physicsSpace.getInterpolationAlpha() : 1;
+        this.interpolationAlpha = this.publishedAlpha;
+        this.timestamp = physicsSpace.getInterpolationTimestamp();
+
+        // Wall time of a step, the alpha is not advanced while the simulation is paused.
+        final float speed = physicsSpace.getSpeed();
+        this.stepNanos = interpolate && speed > 0 ? (long) (physicsSpace.getFixedTimeStep() / speed * 1000000000d) : 0;
+
+        this.indicesValid = false;
+    }
+
+    /**
+     * Advances the interpolation alpha by the time elapsed since the step of this snapshot, clamped to [0, 1]. Must
+     * only be called by the reader.
+     * 
+     * @param now
+     *            the current {@link System#nanoTime()}.
+     */
+    protected void updateInterpolationAlpha(final long now) {
+        if (this.stepNanos > 0) {
+            final float alpha = this.publishedAlpha + (float) (now - this.timestamp) / this.stepNanos;
+            this.interpolationAlpha = Math.max(0, Math.min(alpha, 1f));
+        }
+    }
+
+    private void ensureCapacity(final int size) {
+        if (size <= this.bodies.length) {
+            return;
+        }
+
+        final int capacity = Math.max(size, this.bodies.length * 2);
+        this.bodies = new Body[capacity];
+        this.transforms = new float[capacity * STRIDE];
+        this.bodyCount = 0;
+    }
+
+    /**
+     * Returns the index of the body in this snapshot.
+     * 
+     * @param body
+     *            the body to look for.
+     * @param hint
+     *            the index where the body was found the last time; checked first.
+     * @return the index of the body or -1 if the body is not in this snapshot.
+     */
+    public int indexOf(final Body body, final int hint) {
+        if (hint >= 0 && hint < this.bodyCount && this.bodies[hint] == body) {
+            return hint;
+        }
+
+        if (!this.indicesValid) {
+            this.indices.clear();
+            for (int i = 0; i < this.bodyCount; i++) {
+                this.indices.put(this.bodies[i], i);
+            }
+            this.indicesValid = true;
+        }
+
+        final Integer index = this.indices.get(body);
+        return index != null ? index : -1;
+    }
+
+    public float getX(final int index) {
+        return interpolate(index, PREVIOUS_X, X);
+    }
+
+    public float getY(final int index) {
+        return interpolate(index, PREVIOUS_Y, Y);
+    }
+
+    public float getAngle(final int index) {
+        final int offset = index * STRIDE;
+        final float previous = this.transforms[offset + PREVIOUS_ANGLE];
+        float delta = this.transforms[offset + ANGLE] - previous;
+
+        // Interpolate through the shortest arc.
+        if (delta > FastMath.PI) {
+            delta -= FastMath.TWO_PI;
+        } else if (delta < -FastMath.PI) {
+            delta += FastMath.TWO_PI;
+        }
+
+        return previous + delta * this.interpolationAlpha;
+    }
+
+    private float interpolate(final int index, final int previousField, final int currentField) {
+        final int offset = index * STRIDE;
+        final float previous = this.transforms[offset + previousField];
+        return previous + (this.transforms[offset + currentField] - previous) * this.interpolationAlpha;
+    }
+
+    public Body getBody(final int index) {
+        return this.bodies[index];
+    }
+
+    public int getBodyCount() {
+        return this.bodyCount;
+    }
+
+    public float getInterpolationAlpha() {
+        return this.interpolationAlpha;
+    }
+
+    /**
+     * Returns the sequence number given to this snapshot when it was published. Higher is newer.
+     * 
+     * @return the sequence number.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free exchange of {@link PhysicsSnapshot}s between the physics thread (single writer) and the render thread
+ * (single reader).
+ * <p>
+ * Three snapshots are rotated: the writer fills its back snapshot and swaps it atomically with the published one,
+ * the reader swaps its front snapshot with the published one when a newer one is available. Writer and reader never
+ * touch the same snapshot, so the reader always sees the transforms of a whole step and neither side waits.
+ * 
+ * @author H
+ */
+public class PhysicsSnapshotBuffer {
+
+    private PhysicsSnapshot back;
+    private final AtomicReference<PhysicsSnapshot> published;
+    private PhysicsSnapshot front;
+
+    private long sequence = 0;
+
+    public PhysicsSnapshotBuffer(final int initialCapacity) {
+        this.back = new PhysicsSnapshot(initialCapacity);
+        this.published = new AtomicReference<PhysicsSnapshot>(new PhysicsSnapshot(initialCapacity));
+        this.front = new PhysicsSnapshot(initialCapacity);
+    }
+
+    /**
+     * Writes the transforms of the bodies in the back snapshot and publishes it. Must only be called from the thread
+     * that updates the physics world.
+     * 
+     * @param physicsSpace
+     *            the physics space to copy the bodies of.
+     */
+    public void publish(final PhysicsSpace physicsSpace) {
+        this.back.write(physicsSpace);
+        this.back.sequence = ++this.sequence;
+        this.back = this.published.getAndSet(this.back);
+    }
+
+    /**
+     * Makes the latest published snapshot available through {@link #getFront()} and advances its interpolation alpha
+     * to the current time. Must only be called from the thread that reads the snapshots.
+     * 
+     * @return the front snapshot.
+     */
+    public PhysicsSnapshot acquire() {
+        if (this.published.get().sequence > this.front.sequence) {
+            this.front = this.published.getAndSet(this.front);
+        }
+        this.front.updateInterpolationAlpha(System.nanoTime());
+        return this.front;
+    }
+
+    /**
+     * Returns the snapshot acquired by the last call to {@link #acquire()}.
+     * 
+     * @return the front snapshot.
+     */
+    public PhysicsSnapshot getFront() {
+        return this.front;
+    }
+
+}
@@ -31,7 +31,11 @@
  */
 package com.jme3.physics.dyn4j;
 
+import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
 import org.dyn4j.collision.Bounds;
@@ -40,6 +44,7 @@ import org.dyn4j.dynamics.Capacity;
 import org.dyn4j.dynamics.Settings;
 import org.dyn4j.dynamics.World;
 import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.Transform;
 import org.dyn4j.geometry.Vector2;
 
 import com.jme3.math.Vector2f;
@@ -54,6 +59,8 @@ public class PhysicsSpace {
     private static final Logger logger = Logger.getLogger(PhysicsSpace.class.getName());
 
     private static final float DEFAULT_SPEED = 1f;
+    private static final int DEFAULT_MAX_SUB_STEPS = 5;
+    private static final int DEFAULT_SNAPSHOT_CAPACITY = 64;
 
     private World physicsWorld;
 
@@ -61,44 +68,442 @@ public class PhysicsSpace {
     // jBox2D
     protected float speed = DEFAULT_SPEED;
 
+    // Fixed time step accumulator and render interpolation
+    protected boolean interpolationEnabled = false;
+    protected float fixedTimeStep = (float) Settings.DEFAULT_STEP_FREQUENCY;
+    protected int maxSubSteps = DEFAULT_MAX_SUB_STEPS;
+    protected float accumulator = 0;
+    protected float interpolationAlpha = 1;
+    protected long interpolationTimestamp = 0;
+    protected final Map<Body, Transform> previousTransforms = new HashMap<Body, Transform>();
+
+    // Transform snapshots for readers on other threads
+    protected volatile PhysicsSnapshotBuffer snapshotBuffer = null;
+    protected final int snapshotCapacity;
+
+    // Changes queued from other threads
+    protected final PhysicsCommandQueue commandQueue = new PhysicsCommandQueue();
+
+    // Step metrics, attached to the worlds by the thread that steps them
+    protected volatile PhysicsMetrics metrics = null;
+    private PhysicsMetrics attachedMetrics = null;
+
+    // Handles, entity ids and spatials of the bodies
+    protected final PhysicsBodyIndex bodyIndex = new PhysicsBodyIndex();
+
+    // Notified of added and removed bodies and joints
+    protected final List<PhysicsSpaceListener> listeners = new CopyOnWriteArrayList<PhysicsSpaceListener>();
+
+    // Pools of recycled bodies, by template
+    protected final Map<BodyTemplate, BodyPool> bodyPools = new HashMap<BodyTemplate, BodyPool>();
+
     public PhysicsSpace(final Capacity initialCapacity, final Bounds bounds) {
         if (initialCapacity != null) {
             this.physicsWorld = new World(initialCapacity, bounds);
+            this.snapshotCapacity = initialCapacity.getBodyCount();
         } else {
             this.physicsWorld = new World(bounds);
+            this.snapshotCapacity = DEFAULT_SNAPSHOT_CAPACITY;
         }
     }
 
     public void addBody(final Body body) {
         this.physicsWorld.addBody(body);
+        bodyAdded(body);
     }
 
     public boolean removeBody(final Body body) {
-        return this.physicsWorld.removeBody(body);
+        return removeBody(body, false);
     }
 
     public boolean removeBody(final Body body, final boolean notify) {
-        return this.physicsWorld.removeBody(body, notify);
+        this.previousTransforms.remove(body);
+
+        // Joints of the body are removed by the world too.
+        final List<Joint> bodyJoints = this.listeners.isEmpty() ? null : body.getJoints();
+
+        final boolean removed = this.physicsWorld.removeBody(body, notify);
+        if (removed) {
+            if (bodyJoints != null) {
+                for (int i = 0; i < bodyJoints.size(); i++) {
+                    jointRemoved(bodyJoints.get(i));
+                }
+            }
+            bodyRemoved(body);
+        }
+        return removed;
+    }
+
+    /**
+     * Called by the implementations of {@link #addBody(Body)} once the body is in the world.
+     * 
+     * @param body
+     *            the added body.
+     */
+    protected void bodyAdded(final Body body) {
+        this.bodyIndex.add(body);
+        for (int i = 0; i < this.listeners.size(); i++) {
+            this.listeners.get(i).bodyAdded(body);
+        }
+    }
+
+    /**
+     * Called by the implementations of {@link #removeBody(Body, boolean)} once the body is out of the world.
+     * 
+     * @param body
+     *            the removed body.
+     */
+    protected void bodyRemoved(final Body body) {
+        this.bodyIndex.remove(body);
+        for (int i = 0; i < this.listeners.size(); i++) {
+            this.listeners.get(i).bodyRemoved(body);
+        }
+    }
+
+    /**
+     * Called by the implementations of {@link #addJoint(Joint)} once the joint is in the world.
+     * 
+     * @param joint
+     *            the added joint.
+     */
+    protected void jointAdded(final Joint joint) {
+        for (int i = 0; i < this.listeners.size(); i++) {
+            this.listeners.get(i).jointAdded(joint);
+        }
+    }
+
+    /**
+     * Called by the implementations of {@link #removeJoint(Joint)} and {@link #removeBody(Body, boolean)} once the
+     * joint is out of the world.
+     * 
+     * @param joint
+     *            the removed joint.
+     */
+    protected void jointRemoved(final Joint joint) {
+        for (int i = 0; i < this.listeners.size(); i++) {
+            this.listeners.get(i).jointRemoved(joint);
+        }
+    }
+
+    public void addListener(final PhysicsSpaceListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final PhysicsSpaceListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Returns the index to look bodies up by handle, entity id or spatial.
+     * 
+     * @return the body index.
+     */
+    public PhysicsBodyIndex getBodyIndex() {
+        return this.bodyIndex;
+    }
+
+    /**
+     * Adds a body of the template, recycled from its pool when one was despawned before.
+     * 
+     * @param template
+     *            the template of the body.
+     * @param x
+     *            the position on x.
+     * @param y
+     *            the position on y.
+     * @param angle
+     *            the rotation in radians.
+     * @return the body.
+     */
+    public Body spawnBody(final BodyTemplate template, final double x, final double y, final double angle) {
+        return getBodyPool(template).spawn(x, y, angle);
+    }
+
+    /**
+     * Removes a body returned by {@link #spawnBody(BodyTemplate, double, double, double)} and gives it back to its
+     * pool. Other bodies are just removed.
+     * 
+     * @param body
+     *            the body.
+     * @return true if the body was in the physics space.
+     */
+    public boolean despawnBody(final Body body) {
+        if (body instanceof BodyPool.PooledBody && ((BodyPool.PooledBody) body).pool.physicsSpace == this) {
+            return ((BodyPool.PooledBody) body).pool.despawn(body);
+        }
+        return removeBody(body);
+    }
+
+    /**
+     * Returns the pool of the bodies of a template, created on first use.
+     * 
+     * @param template
+     *            the template.
+     * @return the pool.
+     */
+    public BodyPool getBodyPool(final BodyTemplate template) {
+        BodyPool pool = this.bodyPools.get(template);
+        if (pool == null) {
+            pool = new BodyPool(this, template);
+            this.bodyPools.put(template, pool);
+        }
+        return pool;
     }
 
     public void addJoint(final Joint joint) {
         this.physicsWorld.addJoint(joint);
+        jointAdded(joint);
     }
 
     public boolean removeJoint(final Joint joint) {
-        return this.physicsWorld.removeJoint(joint);
+        final boolean removed = this.physicsWorld.removeJoint(joint);
+        if (removed) {
+            jointRemoved(joint);
+        }
+        return removed;
+    }
+
+    /**
+     * Updates the physics world with the given elapsed time. If interpolation is enabled the elapsed time is
+     * accumulated and consumed in steps of {@link #getFixedTimeStep()}, otherwise the world is updated directly.
+     * 
+     * @param elapsedTime
+     *            the elapsed time in seconds.
+     */
+    public void update(final float elapsedTime) {
+        if (this.interpolationEnabled) {
+            updateInterpolated(elapsedTime);
+        } else {
+            updateFixed(elapsedTime);
+        }
     }
 
     public void updateFixed(final float elapsedTime) {
+        this.commandQueue.drain(this);
+        updateMetricsAttachment();
+
+        final PhysicsMetrics stepMetrics = this.attachedMetrics;
+        final long startNanos = stepMetrics != null ? System.nanoTime() : 0;
+        updateWorld(elapsedTime);
+        if (stepMetrics != null) {
+            stepMetrics.record(this, startNanos);
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Accumulates the elapsed time and performs as many fixed steps as fit in it (up to {@link #getMaxSubSteps()}).
+     * The transforms before the last step are kept, so the leftover time can be used to interpolate between them
+     * and the current ones. See {@link #getInterpolatedTransform(Body, Transform)}.
+     * 
+     * @param elapsedTime
+     *            the elapsed time in seconds.
+     */
+    public void updateInterpolated(final float elapsedTime) {
+        this.interpolationTimestamp = System.nanoTime();
+        this.commandQueue.drain(this);
+        updateMetricsAttachment();
+
+        if (elapsedTime > 0) {
+            this.accumulator += elapsedTime;
+        }
+
+        int steps = (int) (this.accumulator / this.fixedTimeStep);
+        if (steps > this.maxSubSteps) {
+            // Drop the time we can't catch up with, otherwise each frame would need more steps than the previous one.
+            steps = this.maxSubSteps;
+            this.accumulator = steps * this.fixedTimeStep;
+        }
+
+        this.accumulator -= steps * this.fixedTimeStep;
+        if (this.accumulator < 0) {
+            this.accumulator = 0;
+        }
+        stepAndPublish(steps, this.accumulator / this.fixedTimeStep);
+    }
+
+    /**
+     * Performs the given number of steps of {@link #getFixedTimeStep()}, without accumulating time. Used when the
+     * caller already paces the updates, like {@link PhysicsLockstep}.
+     * 
+     * @param steps
+     *            the number of steps to perform.
+     */
+    public void step(final int steps) {
+        step(steps, 1);
+    }
+
+    /**
+     * Performs the given number of steps of {@link #getFixedTimeStep()}, without accumulating time, and sets the
+     * interpolation alpha from the leftover time of the caller's own accumulator, like {@link PhysicsLoop}.
+     * 
+     * @param steps
+     *            the number of steps to perform.
+     * @param interpolationAlpha
+     *            the leftover time after the steps, as a fraction of the fixed time step.
+     */
+    public void step(final int steps, final float interpolationAlpha) {
+        this.interpolationTimestamp = System.nanoTime();
+        this.commandQueue.drain(this);
+        updateMetricsAttachment();
+        stepAndPublish(steps, interpolationAlpha);
+    }
+
+    private void stepAndPublish(final int steps, final float interpolationAlpha) {
+        stepFixed(steps);
+        this.interpolationAlpha = Math.max(0, Math.min(interpolationAlpha, 1f));
+        publishSnapshot();
+    }
+
+    private void stepFixed(final int steps) {
+        final PhysicsMetrics stepMetrics = this.attachedMetrics;
+
+        for (int i = 0; i < steps; i++) {
+            if (this.interpolationEnabled && i == steps - 1) {
+                storePreviousTransforms();
+            }
+
+            final long startNanos = stepMetrics != null ? System.nanoTime() : 0;
+            stepWorld(this.fixedTimeStep);
+            if (stepMetrics != null) {
+                stepMetrics.record(this, startNanos);
+            }
+        }
+    }
+
+    private void updateMetricsAttachment() {
+        final PhysicsMetrics stepMetrics = this.metrics;
+        if (stepMetrics != this.attachedMetrics) {
+            if (this.attachedMetrics != null) {
+                this.attachedMetrics.detach();
+            }
+            if (stepMetrics != null) {
+                attachMetrics(stepMetrics);
+            }
+            this.attachedMetrics = stepMetrics;
+        }
+    }
+
+    /**
+     * Starts measuring the steps of the physics world. Called on the thread that steps the world.
+     * 
+     * @param stepMetrics
+     *            the metrics to attach.
+     */
+    protected void attachMetrics(final PhysicsMetrics stepMetrics) {
+        stepMetrics.attach(this.physicsWorld);
+    }
+
+    /**
+     * Updates the physics world, see {@link World#update(double)}.
+     * 
+     * @param elapsedTime
+     *            the elapsed time in seconds.
+     */
+    protected void updateWorld(final float elapsedTime) {
         this.physicsWorld.update(elapsedTime);
     }
 
+    /**
+     * Performs one step of the physics world, see {@link World#step(int, double)}.
+     * 
+     * @param stepTime
+     *            the step time in seconds.
+     */
+    protected void stepWorld(final double stepTime) {
+        this.physicsWorld.step(1, stepTime);
+    }
+
+    private void publishSnapshot() {
+        final PhysicsSnapshotBuffer buffer = this.snapshotBuffer;
+        if (buffer != null) {
+            buffer.publish(this);
+        }
+    }
+
+    /**
+     * Makes the transforms published by the last step available through {@link #getSnapshot()}. Must be called from
+     * the thread that reads the snapshot (usually the render thread), once per frame: the interpolation alpha of the
+     * snapshot is advanced by the time elapsed since its step.
+     * 
+     * @return the acquired snapshot or null if snapshots are not enabled.
+     */
+    public PhysicsSnapshot acquireSnapshot() {
+        final PhysicsSnapshotBuffer buffer = this.snapshotBuffer;
+        return buffer != null ? buffer.acquire() : null;
+    }
+
+    /**
+     * Returns the snapshot acquired by the last call to {@link #acquireSnapshot()}.
+     * 
+     * @return the acquired snapshot or null if snapshots are not enabled.
+     */
+    public PhysicsSnapshot getSnapshot() {
+        final PhysicsSnapshotBuffer buffer = this.snapshotBuffer;
+        return buffer != null ? buffer.getFront() : null;
+    }
+
+    private void storePreviousTransforms() {
+        for (int i = 0, size = getBodyCount(); i < size; i++) {
+            final Body body = getBody(i);
+
+            Transform previous = this.previousTransforms.get(body);
+            if (previous == null) {
+                previous = new Transform();
+                this.previousTransforms.put(body, previous);
+            }
+            previous.set(body.getTransform());
+        }
+    }
+
+    /**
+     * Returns the transform the body had before the last step, only kept while interpolation is enabled.
+     * 
+     * @param body
+     *            the body.
+     * @return the previous transform or null if it is not known.
+     */
+    public Transform getPreviousTransform(final Body body) {
+        return this.previousTransforms.get(body);
+    }
+
+    /**
+     * Stores in <code>result</code> the transform of the body to be rendered. If interpolation is enabled it is
+     * interpolated between the previous and the current step by the leftover time of the accumulator, otherwise it is
+     * the current transform of the body.
+     * 
+     * @param body
+     *            the body.
+     * @param result
+     *            the transform to store the result in.
+     * @return the result transform.
+     */
+    public Transform getInterpolatedTransform(final Body body, final Transform result) {
+        final Transform previous = this.interpolationEnabled ? this.previousTransforms.get(body) : null;
+
+        if (previous == null) {
+            result.set(body.getTransform());
+        } else {
+            previous.lerp(body.getTransform(), this.interpolationAlpha, result);
+        }
+
+        return result;
+    }
+
     public void clear() {
+        if (this.attachedMetrics != null) {
+            this.attachedMetrics.detach();
+            this.attachedMetrics = null;
+        }
+        setMetricsEnabled(false);
+        this.previousTransforms.clear();
+        this.bodyPools.clear();
+        this.bodyIndex.clear();
         this.physicsWorld = null;
     }
 
     public void setGravity(final Vector2f gravity) {
-        this.physicsWorld.setGravity(new Vector2(gravity.x, gravity.y));
+        setGravity(gravity.x, gravity.y);
     }
 
     public void setGravity(final double x, final double y) {
@@ -126,6 +531,209 @@ public class PhysicsSpace {
         return this.physicsWorld.getJoints();
     }
 
+    /**
+     * Returns the number of bodies. Unlike {@link #getBodies()}, which copies the body list of the world, it does not
+     * allocate.
+     * 
+     * @return the body count.
+     */
+    public int getBodyCount() {
+        return this.physicsWorld.getBodyCount();
+    }
+
+    /**
+     * Returns the body at the given index, between 0 and {@link #getBodyCount()}, without copying the body list.
+     * 
+     * @param index
+     *            the index.
+     * @return the body.
+     */
+    public Body getBody(final int index) {
+        return this.physicsWorld.getBody(index);
+    }
+
+    /**
+     * Returns the number of joints. Unlike {@link #getJoints()}, which copies the joint list of the world, it does not
+     * allocate.
+     * 
+     * @return the joint count.
+     */
+    public int getJointCount() {
+        return this.physicsWorld.getJointCount();
+    }
+
+    /**
+     * Returns the joint at the given index, between 0 and {@link #getJointCount()}, without copying the joint list.
+     * 
+     * @param index
+     *            the index.
+     * @return the joint.
+     */
+    public Joint getJoint(final int index) {
+        return this.physicsWorld.getJoint(index);
+    }
+
+    /**
+     * Returns the queue used to change this physics space from any thread. Queued commands are applied at the start of
+     * the next update.
+     * 
+     * @return the command queue.
+     */
+    public PhysicsCommandQueue getCommandQueue() {
+        return this.commandQueue;
+    }
+
+    public void setInterpolationEnabled(final boolean interpolationEnabled) {
+        this.interpolationEnabled = interpolationEnabled;
+        if (!interpolationEnabled) {
+            this.previousTransforms.clear();
+            this.accumulator = 0;
+            this.interpolationAlpha = 1;
+        }
+    }
+
+    public boolean isInterpolationEnabled() {
+        return this.interpolationEnabled;
+    }
+
+    public void setFixedTimeStep(final float fixedTimeStep) {
+        if (fixedTimeStep <= 0) {
+            throw new IllegalArgumentException("Fixed time step must be greater than zero.");
+        }
+        this.fixedTimeStep = fixedTimeStep;
+    }
+
+    public float getFixedTimeStep() {
+        return this.fixedTimeStep;
+    }
+
+    public void setMaxSubSteps(final int maxSubSteps) {
+        if (maxSubSteps < 1) {
+            throw new IllegalArgumentException("Max sub steps must be at least 1.");
+        }
+        this.maxSubSteps = maxSubSteps;
+    }
+
+    public int getMaxSubSteps() {
+        return this.maxSubSteps;
+    }
+
+    public float getInterpolationAlpha() {
+        return this.interpolationAlpha;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the time of the last update was taken, the time
+     * {@link #getInterpolationAlpha()} refers to.
+     * 
+     * @return the timestamp in nanoseconds.
+     */
+    public long getInterpolationTimestamp() {
+        return this.interpolationTimestamp;
+    }
+
+    /**
+     * Enables publishing the transforms of all bodies at the end of each update, so they can be read from another
+     * thread through {@link #acquireSnapshot()} and {@link #getSnapshot()} without tearing.
+     * 
+     * @param snapshotEnabled
+     *            true to publish snapshots.
+     */
+    public void setSnapshotEnabled(final boolean snapshotEnabled) {
+        if (snapshotEnabled && this.snapshotBuffer == null) {
+            this.snapshotBuffer = new PhysicsSnapshotBuffer(this.snapshotCapacity);
+        } else if (!snapshotEnabled) {
+            this.snapshotBuffer = null;
+        }
+    }
+
+    public boolean isSnapshotEnabled() {
+        return this.snapshotBuffer != null;
+    }
+
+    /**
+     * Enables measuring each step, see {@link PhysicsMetrics}. Can be called from any thread, the worlds are
+     * instrumented at the start of the next update. Disabling the metrics also unregisters their MBean.
+     * 
+     * @param metricsEnabled
+     *            true to measure the steps.
+     */
+    public void setMetricsEnabled(final boolean metricsEnabled) {
+        if (metricsEnabled && this.metrics == null) {
+            this.metrics = new PhysicsMetrics();
+        } else if (!metricsEnabled && this.metrics != null) {
+            this.metrics.unregisterMBean();
+            this.metrics = null;
+        }
+    }
+
+    public boolean isMetricsEnabled() {
+        return this.metrics != null;
+    }
+
+    /**
+     * Returns the metrics of the steps.
+     * 
+     * @return the metrics or null if they are not enabled.
+     */
+    public PhysicsMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Returns the number of bytes needed by {@link #saveState(ByteBuffer)} for the current bodies and joints.
+     * 
+     * @return the size in bytes.
+     */
+    public int getStateSize() {
+        return PhysicsStateCodec.getSize(this);
+    }
+
+    /**
+     * Allocates a direct buffer, in native byte order, big enough for the state of the current bodies and joints.
+     * 
+     * @return the buffer.
+     */
+    public ByteBuffer allocateStateBuffer() {
+        return PhysicsStateCodec.allocate(this);
+    }
+
+    /**
+     * Writes the transforms, velocities and sleep state of all bodies and the warm start impulses of all joints at
+     * the position of the buffer, and advances it. Meant for rollback: save in a preallocated buffer every frame and
+     * restore with {@link #restoreState(ByteBuffer)}. Must be called from the thread that steps the space.
+     * 
+     * @param buffer
+     *            the buffer, with at least {@link #getStateSize()} bytes remaining.
+     */
+    public void saveState(final ByteBuffer buffer) {
+        PhysicsStateCodec.save(this, buffer);
+    }
+
+    /**
+     * Restores in place the state written by {@link #saveState(ByteBuffer)} at the position of the buffer, and
+     * advances it. The space must have the same bodies and joints, in the same order, as when it was saved. Contacts
+     * are not part of the state, they are detected again from the restored transforms at the start of the next step.
+     * Must be called from the thread that steps the space.
+     * 
+     * @param buffer
+     *            the buffer.
+     * @throws IllegalStateException
+     *             if the number of bodies or joints is not the same as when the state was saved.
+     */
+    public void restoreState(final ByteBuffer buffer) {
+        PhysicsStateCodec.restore(this, buffer);
+        this.previousTransforms.clear();
+        invalidateContacts();
+    }
+
+    /**
+     * Makes the world detect the contacts again at the start of the next step, after the bodies have been moved.
+     */
+    protected void invalidateContacts() {
+        this.physicsWorld.setUpdateRequired(true);
+    }
+
     public World getPhysicsWorld() {
         return this.physicsWorld;
     }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link PhysicsSpace} registered in a {@link PhysicsSteppingService}, with its scheduling state and step time
+ * accounting. Like {@link PhysicsLoop}, elapsed time is scaled by {@link PhysicsSpace#getSpeed()} and accumulated,
+ * the time left after the steps is published as the interpolation alpha of the space, and nothing is stepped while
+ * the speed is 0.
+ * 
+ * @author H
+ */
+public class PhysicsSpaceRegistration implements Delayed {
+
+    private static final Logger logger = Logger.getLogger(PhysicsSpaceRegistration.class.getName());
+
+    private static final int DEFAULT_MAX_SUB_STEPS = 5;
+
+    protected final PhysicsSteppingService service;
+    protected final PhysicsSpace physicsSpace;
+
+    protected volatile boolean registered = true;
+    protected volatile boolean paused = false;
+    protected volatile int maxSubSteps = DEFAULT_MAX_SUB_STEPS;
+
+    // Only touched by the worker that took this registration from the queue.
+    private long nextTick;
+    private long lastTime;
+
+    // Simulated time not stepped yet, in seconds.
+    private double accumulator = 0;
+
+    // Held while the space is stepped, so unregistering can wait for the step in progress.
+    final ReentrantLock stepLock = new ReentrantLock();
+
+    // Step time accounting
+    protected volatile long stepCount = 0;
+    protected volatile long overrunCount = 0;
+    protected volatile long droppedStepCount = 0;
+    protected volatile long totalStepNanos = 0;
+    protected volatile long lastStepNanos = 0;
+    protected volatile long maxStepNanos = 0;
+
+    protected PhysicsSpaceRegistration(final PhysicsSteppingService service, final PhysicsSpace physicsSpace) {
+        this.service = service;
+        this.physicsSpace = physicsSpace;
+        this.lastTime = System.nanoTime();
+        this.nextTick = this.lastTime + getStepNanos();
+    }
+
+    /**
+     * Performs the steps that are due, unless the space has been unregistered meanwhile. Called by the workers of the
+     * service.
+     */
+    protected void run() {
+        this.stepLock.lock();
+        try {
+            if (this.registered) {
+                runSteps();
+            }
+        } finally {
+            this.stepLock.unlock();
+        }
+    }
+
+    private void runSteps() {
+        final long now = System.nanoTime();
+        final double speed = this.physicsSpace.getSpeed();
+        final double stepTime = this.physicsSpace.getFixedTimeStep();
+
+        if (this.paused || speed <= 0) {
+            // Time is frozen, check again in a step.
+            this.lastTime = now;
+            this.nextTick = now + getStepNanos();
+            return;
+        }
+
+        this.accumulator += (now - this.lastTime) / 1000000000d * speed;
+        this.lastTime = now;
+
+        // Steps due in the accumulated time, capped so a late space can't starve the others.
+        int steps = (int) Math.min(this.accumulator / stepTime, Integer.MAX_VALUE);
+        final int maxSteps = this.maxSubSteps;
+        if (steps > maxSteps) {
+            this.overrunCount++;
+            this.droppedStepCount += steps - maxSteps;
+            steps = maxSteps;
+
+            // Forget the time that has been dropped.
+            this.accumulator = steps * stepTime;
+        }
+        this.accumulator -= steps * stepTime;
+
+        // The next step is due when the accumulator reaches a whole step again.
+        this.nextTick = now + (long) ((stepTime - this.accumulator) / speed * 1000000000d);
+
+        if (steps == 0) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            this.physicsSpace.step(steps, (float) (this.accumulator / stepTime));
+        } catch (final RuntimeException ex) {
+            logger.log(Level.SEVERE, "Physics step failed", ex);
+        }
+
+        final long duration = System.nanoTime() - start;
+        this.lastStepNanos = duration;
+        this.totalStepNanos += duration;
+        if (duration > this.maxStepNanos) {
+            this.maxStepNanos = duration;
+        }
+        this.stepCount += steps;
+    }
+
+    private long getStepNanos() {
+        return Math.max((long) (this.physicsSpace.getFixedTimeStep() * 1000000000d), 1l);
+    }
+
+    @Override
+    public long getDelay(final TimeUnit unit) {
+        return unit.convert(this.nextTick - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(final Delayed other) {
+        if (other instanceof PhysicsSpaceRegistration) {
+            final long difference = this.nextTick - ((PhysicsSpaceRegistration) other).nextTick;
+            return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+        }
+
+        final long difference = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+        return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+    }
+
+    /**
+     * Stops stepping the space and waits for the step in progress, see
+     * {@link PhysicsSteppingService#unregister(PhysicsSpaceRegistration)}.
+     */
+    public void unregister() {
+        this.service.unregister(this);
+    }
+
+    public boolean isRegistered() {
+        return this.registered;
+    }
+
+    public PhysicsSpace getPhysicsSpace() {
+        return this.physicsSpace;
+    }
+
+    public void setPaused(final boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    public void setMaxSubSteps(final int maxSubSteps) {
+        if (maxSubSteps < 1) {
+            throw new IllegalArgumentException("Max sub steps must be at least 1.");
+        }
+        this.maxSubSteps = maxSubSteps;
+    }
+
+    public int getMaxSubSteps() {
+        return this.maxSubSteps;
+    }
+
+    public long getStepCount() {
+        return this.stepCount;
+    }
+
+    public long getOverrunCount() {
+        return this.overrunCount;
+    }
+
+    public long getDroppedStepCount() {
+        return this.droppedStepCount;
+    }
+
+    /**
+     * Returns the time spent stepping this space since it was registered.
+     * 
+     * @return the total step time in nanoseconds.
+     */
+    public long getTotalStepNanos() {
+        return this.totalStepNanos;
+    }
+
+    public long getLastStepNanos() {
+        return this.lastStepNanos;
+    }
+
+    public long getMaxStepNanos() {
+        return this.maxStepNanos;
+    }
+
+}
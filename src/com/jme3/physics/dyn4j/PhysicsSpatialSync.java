@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.Transform;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.scene.Spatial;
+
+/**
+ * Synchronizes spatials with their bodies in one loop over arrays, instead of one
+ * {@link com.jme3.physics.dyn4j.control.Dyn4jBodyControl} per spatial visited by the scene graph traversal. Spatials
+ * registered here must not have a body control too.
+ * <p>
+ * Transforms are read from the published snapshot when the physics space has one, otherwise from the bodies,
+ * interpolated if enabled. Like the body control, a spatial is only touched when its body moved. Spatials of bodies
+ * removed from the physics space are unregistered on the next sync. Owned by {@link Dyn4jAppState}, which calls
+ * {@link #sync()} from its update; must only be used on the render thread.
+ * 
+ * @author H
+ */
+public class PhysicsSpatialSync {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int STRIDE = 3;
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int ANGLE = 2;
+
+    protected final PhysicsSpace physicsSpace;
+
+    protected Body[] bodies = new Body[INITIAL_CAPACITY];
+    protected Spatial[] spatials = new Spatial[INITIAL_CAPACITY];
+    protected int size = 0;
+
+    // Last values set on each spatial, with the index of its body in the last snapshot.
+    private float[] applied = new float[INITIAL_CAPACITY * STRIDE];
+    private boolean[] synced = new boolean[INITIAL_CAPACITY];
+    private int[] snapshotIndices = new int[INITIAL_CAPACITY];
+
+    private final Map<Spatial, Integer> indices = new IdentityHashMap<Spatial, Integer>();
+
+    /** A body added to or removed from the physics space, applied on the next sync. */
+    private static final class Change {
+
+        final Body body;
+        final boolean added;
+
+        Change(final Body body, final boolean added) {
+            this.body = body;
+            this.added = added;
+        }
+
+    }
+
+    // Changes may come from the thread stepping the physics space.
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<Change>();
+    private final Map<Body, Boolean> removedBodies = new IdentityHashMap<Body, Boolean>();
+    private boolean listening = false;
+
+    private final PhysicsSpaceListener spaceListener = new PhysicsSpaceListener() {
+
+        @Override
+        public void bodyAdded(final Body body) {
+            // Pooled bodies can come back before the next sync.
+            PhysicsSpatialSync.this.changes.add(new Change(body, true));
+        }
+
+        @Override
+        public void bodyRemoved(final Body body) {
+            PhysicsSpatialSync.this.changes.add(new Change(body, false));
+        }
+
+        @Override
+        public void jointAdded(final Joint joint) {
+        }
+
+        @Override
+        public void jointRemoved(final Joint joint) {
+        }
+
+    };
+
+    private final Transform renderTransform = new Transform();
+    private final Quaternion rotation = new Quaternion();
+
+    public PhysicsSpatialSync(final PhysicsSpace physicsSpace) {
+        this.physicsSpace = physicsSpace;
+    }
+
+    /**
+     * Tells whether a resting body, asleep or static, still has the transform last applied to its spatial, in which
+     * case there is nothing to do. Shared with {@link com.jme3.physics.dyn4j.control.Dyn4jBodyControl}.
+     * 
+     * @param body
+     *            the body.
+     * @param x
+     *            the last x applied to the spatial.
+     * @param y
+     *            the last y applied to the spatial.
+     * @param angle
+     *            the last rotation applied to the spatial.
+     * @return true if the body rests where the spatial already is.
+     */
+    public static boolean isResting(final Body body, final float x, final float y, final float angle) {
+        if (!body.isAsleep() && !body.isStatic()) {
+            return false;
+        }
+        final Transform transform = body.getTransform();
+        return x == Converter.toFloat(transform.getTranslationX()) && y == Converter.toFloat(transform.getTranslationY())
+                && angle == Converter.toFloat(transform.getRotation());
+    }
+
+    /**
+     * Registers a spatial to follow a body. A spatial already registered follows the new body.
+     * 
+     * @param body
+     *            the body.
+     * @param spatial
+     *            the spatial.
+     */
+    public void add(final Body body, final Spatial spatial) {
+        if (!this.listening) {
+            this.physicsSpace.addListener(this.spaceListener);
+            this.listening = true;
+        }
+
+        final Integer index = this.indices.get(spatial);
+        if (index != null) {
+            this.bodies[index] = body;
+            this.synced[index] = false;
+            this.snapshotIndices[index] = -1;
+            return;
+        }
+
+        ensureCapacity(this.size + 1);
+        this.bodies[this.size] = body;
+        this.spatials[this.size] = spatial;
+        this.synced[this.size] = false;
+        this.snapshotIndices[this.size] = -1;
+        this.indices.put(spatial, this.size);
+        this.size++;
+    }
+
+    /**
+     * Unregisters a spatial, it keeps its last transform.
+     * 
+     * @param spatial
+     *            the spatial.
+     * @return true if it was registered.
+     */
+    public boolean remove(final Spatial spatial) {
+        final Integer index = this.indices.remove(spatial);
+        if (index == null) {
+            return false;
+        }
+
+        // Move the last pair in the hole.
+        final int last = --this.size;
+        if (index != last) {
+            this.bodies[index] = this.bodies[last];
+            this.spatials[index] = this.spatials[last];
+            System.arraycopy(this.applied, last * STRIDE, this.applied, index * STRIDE, STRIDE);
+            this.synced[index] = this.synced[last];
+            this.snapshotIndices[index] = this.snapshotIndices[last];
+            this.indices.put(this.spatials[index], index);
+        }
+        this.bodies[last] = null;
+        this.spatials[last] = null;
+        return true;
+    }
+
+    /**
+     * Unregisters all spatials and stops listening to the physics space.
+     */
+    public void clear() {
+        this.physicsSpace.removeListener(this.spaceListener);
+        this.listening = false;
+        this.changes.clear();
+        Arrays.fill(this.bodies, 0, this.size, null);
+        Arrays.fill(this.spatials, 0, this.size, null);
+        this.indices.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Forces every spatial to be set from its body on the next sync, e.g. after they were moved by something else.
+     */
+    public void invalidate() {
+        Arrays.fill(this.synced, 0, this.size, false);
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= this.bodies.length) {
+            return;
+        }
+
+        final int newCapacity = Math.max(capacity, this.bodies.length * 2);
+        this.bodies = Arrays.copyOf(this.bodies, newCapacity);
+        this.spatials = Arrays.copyOf(this.spatials, newCapacity);
+        this.applied = Arrays.copyOf(this.applied, newCapacity * STRIDE);
+        this.synced = Arrays.copyOf(this.synced, newCapacity);
+        this.snapshotIndices = Arrays.copyOf(this.snapshotIndices, newCapacity);
+    }
+
+    /**
+     * Sets the transform of all registered spatials from their bodies.
+     */
+    public void sync() {
+        if (!this.changes.isEmpty()) {
+            removeRemovedBodies();
+        }
+
+        final PhysicsSnapshot snapshot = this.physicsSpace.getSnapshot();
+        if (snapshot != null) {
+            syncFromSnapshot(snapshot);
+        } else {
+            syncFromBodies();
+        }
+    }
+
+    private void removeRemovedBodies() {
+        Change change;
+        while ((change = this.changes.poll()) != null) {
+            if (change.added) {
+                this.removedBodies.remove(change.body);
+            } else {
+                this.removedBodies.put(change.body, Boolean.TRUE);
+            }
+        }
+        if (this.removedBodies.isEmpty()) {
+            return;
+        }
+
+        // From the end, removing moves the last pair in the hole.
+        for (int i = this.size - 1; i >= 0; i--) {
+            if (this.removedBodies.containsKey(this.bodies[i])) {
+                remove(this.spatials[i]);
+            }
+        }
+        this.removedBodies.clear();
+    }
+
+    private void syncFromSnapshot(final PhysicsSnapshot snapshot) {
+        final Body[] bodies = this.bodies;
+        final int[] snapshotIndices = this.snapshotIndices;
+
+        for (int i = 0; i < this.size; i++) {
+            final int index = snapshot.indexOf(bodies[i], snapshotIndices[i]);
+            snapshotIndices[i] = index;
+            if (index >= 0) {
+                apply(i, snapshot.getX(index), snapshot.getY(index), snapshot.getAngle(index));
+            }
+        }
+    }
+
+    private void syncFromBodies() {
+        final Body[] bodies = this.bodies;
+        final float[] applied = this.applied;
+        final boolean[] synced = this.synced;
+        final PhysicsSpace physicsSpace = this.physicsSpace;
+        final boolean interpolate = physicsSpace.isInterpolationEnabled();
+
+        for (int i = 0; i < this.size; i++) {
+            final Body body = bodies[i];
+            Transform transform = body.getTransform();
+
+            final int offset = i * STRIDE;
+            if (synced[i] && isResting(body, applied[offset + X], applied[offset + Y], applied[offset + ANGLE])) {
+                continue;
+            }
+
+            if (interpolate) {
+                transform = physicsSpace.getInterpolatedTransform(body, this.renderTransform);
+            }
+
+            apply(i, Converter.toFloat(transform.getTranslationX()), Converter.toFloat(transform.getTranslationY()),
+                    Converter.toFloat(transform.getRotation()));
+        }
+    }
+
+    private void apply(final int i, final float x, final float y, final float angle) {
+        final Spatial spatial = this.spatials[i];
+        final float[] applied = this.applied;
+        final int offset = i * STRIDE;
+        final boolean synced = this.synced[i];
+
+        if (!synced || x != applied[offset + X] || y != applied[offset + Y]) {
+            spatial.setLocalTranslation(x, y, spatial.getLocalTranslation().z);
+            applied[offset + X] = x;
+            applied[offset + Y] = y;
+        }
+
+        if (!synced || angle != applied[offset + ANGLE]) {
+            // Rotation around z, same as fromAngleAxis(angle, UNIT_Z) without the normalization.
+            final float halfAngle = 0.5f * angle;
+            this.rotation.set(0, 0, FastMath.sin(halfAngle), FastMath.cos(halfAngle));
+            spatial.setLocalRotation(this.rotation);
+            applied[offset + ANGLE] = angle;
+        }
+
+        this.synced[i] = true;
+    }
+
+    public Body getBody(final int index) {
+        return this.bodies[index];
+    }
+
+    public Spatial getSpatial(final int index) {
+        return this.spatials[index];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+}
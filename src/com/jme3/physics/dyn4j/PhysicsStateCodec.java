@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.geometry.Vector3;
+
+/**
+ * Saves and restores the state of the bodies and joints of a {@link PhysicsSpace} in a {@link ByteBuffer}, see
+ * {@link PhysicsSpace#saveState(ByteBuffer)}. Bodies and joints are restored in place, so the space must have the same
+ * bodies and joints, in the same order, as when the state was saved.
+ * <p>
+ * Layout, in the byte order of the buffer:
+ * <ul>
+ * <li>body count and joint count (int, int)</li>
+ * <li>per body: transform m00, m01, m10, m11, x, y, linear velocity x, y, angular velocity and sleep time (10
+ * doubles) and state flags (int)</li>
+ * <li>per joint: the warm start impulses of its type (doubles)</li>
+ * </ul>
+ * Values are stored and restored with their exact bits. The sleep time and state flags of the bodies and the impulses
+ * of the joints are not public in dyn4j and are accessed by reflection, with the fields looked up once per class.
+ * 
+ * @author H
+ */
+final class PhysicsStateCodec {
+
+    static final int HEADER_SIZE = 8;
+    static final int BODY_SIZE = 10 * 8 + 4;
+
+    private static final Field BODY_STATE = getBodyField("state");
+    private static final Field BODY_SLEEP_TIME = getBodyField("sleepTime");
+
+    private static final ConcurrentMap<Class<?>, Field[]> jointImpulseFields = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    private static final ThreadLocal<ExactTransform> exactTransform = new ThreadLocal<ExactTransform>() {
+        @Override
+        protected ExactTransform initialValue() {
+            return new ExactTransform();
+        }
+    };
+
+    private PhysicsStateCodec() {
+    }
+
+    /**
+     * Returns the number of bytes needed to save the state of the physics space.
+     * 
+     * @param physicsSpace
+     *            the physics space.
+     * @return the size in bytes.
+     */
+    static int getSize(final PhysicsSpace physicsSpace) {
+        int size = HEADER_SIZE + physicsSpace.getBodyCount() * BODY_SIZE;
+
+        for (int i = 0, count = physicsSpace.getJointCount(); i < count; i++) {
+            size += getJointSize(physicsSpace.getJoint(i));
+        }
+        return size;
+    }
+
+    /**
+     * Allocates a direct buffer, in native byte order, big enough for the state of the physics space.
+     * 
+     * @param physicsSpace
+     *            the physics space.
+     * @return the buffer.
+     */
+    static ByteBuffer allocate(final PhysicsSpace physicsSpace) {
+        return ByteBuffer.allocateDirect(getSize(physicsSpace)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Writes the state of the physics space at the position of the buffer, and advances it.
+     * 
+     * @param physicsSpace
+     *            the physics space.
+     * @param buffer
+     *            the buffer, with at least {@link #getSize(PhysicsSpace)} bytes remaining.
+     */
+    static void save(final PhysicsSpace physicsSpace, final ByteBuffer buffer) {
+        final int bodyCount = physicsSpace.getBodyCount();
+        final int jointCount = physicsSpace.getJointCount();
+
+        buffer.putInt(bodyCount);
+        buffer.putInt(jointCount);
+
+        final ExactTransform transform = exactTransform.get();
+        try {
+            for (int i = 0; i < bodyCount; i++) {
+                final Body body = physicsSpace.getBody(i);
+                final Vector2 velocity = body.getLinearVelocity();
+
+                transform.set(body.getTransform());
+                transform.write(buffer);
+
+                buffer.putDouble(velocity.x);
+                buffer.putDouble(velocity.y);
+                buffer.putDouble(body.getAngularVelocity());
+                buffer.putDouble(BODY_SLEEP_TIME.getDouble(body));
+                buffer.putInt(BODY_STATE.getInt(body));
+            }
+
+            for (int i = 0; i < jointCount; i++) {
+                final Joint joint = physicsSpace.getJoint(i);
+                final Field[] fields = getJointImpulseFields(joint.getClass());
+                for (int f = 0; f < fields.length; f++) {
+                    final Field field = fields[f];
+                    final Class<?> type = field.getType();
+                    if (type == double.class) {
+                        buffer.putDouble(field.getDouble(joint));
+                    } else if (type == Vector2.class) {
+                        final Vector2 value = (Vector2) field.get(joint);
+                        buffer.putDouble(value.x);
+                        buffer.putDouble(value.y);
+                    } else {
+                        final Vector3 value = (Vector3) field.get(joint);
+                        buffer.putDouble(value.x);
+                        buffer.putDouble(value.y);
+                        buffer.putDouble(value.z);
+                    }
+                }
+            }
+        } catch (final IllegalAccessException ex) {
+            throw new IllegalStateException("Cannot read the physics state", ex);
+        }
+    }
+
+    /**
+     * Reads a state written by {@link #save(PhysicsSpace, ByteBuffer)} at the position of the buffer, advances it and
+     * applies it to the bodies and joints of the physics space.
+     * 
+     * @param physicsSpace
+     *            the physics space, with the same bodies and joints as when the state was saved.
+     * @param buffer
+     *            the buffer.
+     * @throws IllegalStateException
+     *             if the number of bodies or joints is not the same.
+     */
+    static void restore(final PhysicsSpace physicsSpace, final ByteBuffer buffer) {
+        final int bodyCount = buffer.getInt();
+        final int jointCount = buffer.getInt();
+
+        if (bodyCount != physicsSpace.getBodyCount() || jointCount != physicsSpace.getJointCount()) {
+            throw new IllegalStateException("State of " + bodyCount + " bodies and " + jointCount
+                    + " joints cannot be restored in a space of " + physicsSpace.getBodyCount() + " bodies and "
+                    + physicsSpace.getJointCount() + " joints.");
+        }
+
+        final ExactTransform transform = exactTransform.get();
+        try {
+            for (int i = 0; i < bodyCount; i++) {
+                final Body body = physicsSpace.getBody(i);
+
+                transform.read(buffer);
+                body.getTransform().set(transform);
+
+                // Plain field writes, whether the body is awake is restored with its state flags below.
+                body.setLinearVelocity(buffer.getDouble(), buffer.getDouble());
+                body.setAngularVelocity(buffer.getDouble());
+                BODY_SLEEP_TIME.setDouble(body, buffer.getDouble());
+                BODY_STATE.setInt(body, buffer.getInt());
+            }
+
+            for (int i = 0; i < jointCount; i++) {
+                final Joint joint = physicsSpace.getJoint(i);
+                final Field[] fields = getJointImpulseFields(joint.getClass());
+                for (int f = 0; f < fields.length; f++) {
+                    final Field field = fields[f];
+                    final Class<?> type = field.getType();
+                    if (type == double.class) {
+                        field.setDouble(joint, buffer.getDouble());
+                    } else if (type == Vector2.class) {
+                        ((Vector2) field.get(joint)).set(buffer.getDouble(), buffer.getDouble());
+                    } else {
+                        ((Vector3) field.get(joint)).set(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+                    }
+                }
+            }
+        } catch (final IllegalAccessException ex) {
+            throw new IllegalStateException("Cannot write the physics state", ex);
+        }
+    }
+
+    private static int getJointSize(final Joint joint) {
+        final Field[] fields = getJointImpulseFields(joint.getClass());
+        int size = 0;
+        for (int i = 0; i < fields.length; i++) {
+            final Class<?> type = fields[i].getType();
+            size += type == double.class ? 8 : type == Vector2.class ? 16 : 24;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the impulse fields of a joint class and its super classes: the instance fields of type double,
+     * {@link Vector2} or {@link Vector3} with "impulse" in their name.
+     */
+    private static Field[] getJointImpulseFields(final Class<?> jointClass) {
+        Field[] fields = jointImpulseFields.get(jointClass);
+        if (fields != null) {
+            return fields;
+        }
+
+        final List<Field> found = new ArrayList<Field>();
+        for (Class<?> type = jointClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (final Field field : type.getDeclaredFields()) {
+                final Class<?> fieldType = field.getType();
+                if (!Modifier.isStatic(field.getModifiers())
+                        && field.getName().toLowerCase().contains("impulse")
+                        && (fieldType == double.class || fieldType == Vector2.class || fieldType == Vector3.class)) {
+                    field.setAccessible(true);
+                    found.add(field);
+                }
+            }
+        }
+
+        fields = found.toArray(new Field[found.size()]);
+        jointImpulseFields.putIfAbsent(jointClass, fields);
+        return fields;
+    }
+
+    private static Field getBodyField(final String name) {
+        try {
+            final Field field = Body.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (final NoSuchFieldException ex) {
+            throw new IllegalStateException("Unsupported dyn4j version, Body." + name + " not found", ex);
+        }
+    }
+
+    /**
+     * Transform whose values can be written and read exactly. {@link Transform#set(Transform)} copies them from and to
+     * the transforms of the bodies.
+     */
+    private static final class ExactTransform extends Transform {
+
+        private void write(final ByteBuffer buffer) {
+            buffer.putDouble(this.m00);
+            buffer.putDouble(this.m01);
+            buffer.putDouble(this.m10);
+            buffer.putDouble(this.m11);
+            buffer.putDouble(this.x);
+            buffer.putDouble(this.y);
+        }
+
+        private void read(final ByteBuffer buffer) {
+            this.m00 = buffer.getDouble();
+            this.m01 = buffer.getDouble();
+            this.m10 = buffer.getDouble();
+            this.m11 = buffer.getDouble();
+            this.x = buffer.getDouble();
+            this.y = buffer.getDouble();
+        }
+
+    }
+
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dyn4j.collision.broadphase.BroadphaseDetector;
+import org.dyn4j.collision.broadphase.BroadphasePair;
+import org.dyn4j.collision.continuous.TimeOfImpact;
+import org.dyn4j.collision.continuous.TimeOfImpactDetector;
+import org.dyn4j.collision.manifold.Manifold;
+import org.dyn4j.collision.manifold.ManifoldSolver;
+import org.dyn4j.collision.narrowphase.NarrowphaseDetector;
+import org.dyn4j.collision.narrowphase.Penetration;
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.dynamics.CollisionListener;
+import org.dyn4j.dynamics.Step;
+import org.dyn4j.dynamics.StepListener;
+import org.dyn4j.dynamics.World;
+import org.dyn4j.dynamics.contact.ContactConstraint;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.AABB;
+import org.dyn4j.geometry.Convex;
+import org.dyn4j.geometry.Ray;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+
+/**
+ * Measures the phases of the steps of one dyn4j {@link World}. Used by {@link PhysicsMetrics}.
+ * <p>
+ * dyn4j has no listener for every phase, so the detectors of the world are wrapped to time them:
+ * <ul>
+ * <li>Broadphase: updating the AABBs and finding the pairs, from the first broadphase update to the end of the step,
+ * minus the narrowphase.</li>
+ * <li>Narrowphase: the narrowphase detector and the manifold solver.</li>
+ * <li>CCD: the time of impact detector.</li>
+ * <li>Solver: the rest of the step, that is building and solving the islands and notifying the contact listeners.</li>
+ * </ul>
+ * Must be installed and uninstalled while the world is not being stepped.
+ * 
+ * @author H
+ */
+public class PhysicsStepProfiler implements StepListener, CollisionListener {
+
+    private static final int INITIAL_PAIR_CAPACITY = 64;
+
+    protected final World world;
+
+    private BroadphaseDetector<Body> broadphaseDetector;
+    private NarrowphaseDetector narrowphaseDetector;
+    private ManifoldSolver manifoldSolver;
+    private TimeOfImpactDetector timeOfImpactDetector;
+
+    // Written and read on the thread that steps the world
+    private long stepStartNanos;
+    private long updatePerformedNanos;
+    private long detectStartNanos;
+    private boolean detecting;
+    private long narrowphaseNanos;
+    private long timeOfImpactNanos;
+    private int contactCount;
+
+    private boolean stepped;
+    private long lastStepNanos;
+    private long lastBroadphaseNanos;
+    private long lastNarrowphaseNanos;
+    private long lastSolverNanos;
+    private long lastTimeOfImpactNanos;
+    private int lastContactCount;
+
+    // Dynamic body pairs in contact, to count the islands
+    private Body[] pairs = new Body[INITIAL_PAIR_CAPACITY * 2];
+    private int pairCount;
+    private final Map<Body, IslandNode> islandNodes = new IdentityHashMap<Body, IslandNode>();
+    private int islandStamp;
+
+    public PhysicsStepProfiler(final World world) {
+        this.world = world;
+    }
+
+    /**
+     * Wraps the detectors of the world and adds this profiler as a listener.
+     */
+    public void install() {
+        if (this.broadphaseDetector != null) {
+            return;
+        }
+
+        this.broadphaseDetector = this.world.getBroadphaseDetector();
+        this.narrowphaseDetector = this.world.getNarrowphaseDetector();
+        this.manifoldSolver = this.world.getManifoldSolver();
+        this.timeOfImpactDetector = this.world.getTimeOfImpactDetector();
+
+        // The world clears the detector and adds all the bodies again.
+        this.world.setBroadphaseDetector(new TimedBroadphaseDetector());
+        this.world.setNarrowphaseDetector(new TimedNarrowphaseDetector());
+        this.world.setManifoldSolver(new TimedManifoldSolver());
+        this.world.setTimeOfImpactDetector(new TimedTimeOfImpactDetector());
+        this.world.addListener(this);
+    }
+
+    /**
+     * Restores the detectors of the world, unless they have been replaced after {@link #install()}, and removes this
+     * profiler from the listeners.
+     */
+    public void uninstall() {
+        if (this.broadphaseDetector == null) {
+            return;
+        }
+
+        this.world.removeListener(this);
+        if (this.world.getBroadphaseDetector() instanceof TimedBroadphaseDetector) {
+            this.world.setBroadphaseDetector(this.broadphaseDetector);
+        }
+        if (this.world.getNarrowphaseDetector() instanceof TimedNarrowphaseDetector) {
+            this.world.setNarrowphaseDetector(this.narrowphaseDetector);
+        }
+        if (this.world.getManifoldSolver() instanceof TimedManifoldSolver) {
+            this.world.setManifoldSolver(this.manifoldSolver);
+        }
+        if (this.world.getTimeOfImpactDetector() instanceof TimedTimeOfImpactDetector) {
+            this.world.setTimeOfImpactDetector(this.timeOfImpactDetector);
+        }
+
+        this.broadphaseDetector = null;
+        this.narrowphaseDetector = null;
+        this.manifoldSolver = null;
+        this.timeOfImpactDetector = null;
+        this.islandNodes.clear();
+    }
+
+    @Override
+    public void begin(final Step step, final World world) {
+        this.stepStartNanos = System.nanoTime();
+        this.updatePerformedNanos = this.stepStartNanos;
+        this.detectStartNanos = 0;
+        this.detecting = false;
+        this.narrowphaseNanos = 0;
+        this.timeOfImpactNanos = 0;
+    }
+
+    @Override
+    public void updatePerformed(final Step step, final World world) {
+        // The detection done at the start of the step (if bodies were added or moved) counts as broadphase, the next
+        // broadphase update starts the detection of the end of the step.
+        this.updatePerformedNanos = System.nanoTime();
+        this.detecting = false;
+    }
+
+    @Override
+    public void end(final Step step, final World world) {
+        final long endNanos = System.nanoTime();
+        final long detectStart = this.detectStartNanos != 0 ? this.detectStartNanos : endNanos;
+
+        this.lastStepNanos = endNanos - this.stepStartNanos;
+        this.lastNarrowphaseNanos = this.narrowphaseNanos;
+        this.lastTimeOfImpactNanos = this.timeOfImpactNanos;
+        this.lastBroadphaseNanos = Math.max(0, (this.updatePerformedNanos - this.stepStartNanos)
+                + (endNanos - detectStart) - this.narrowphaseNanos);
+        this.lastSolverNanos = Math.max(0, detectStart - this.updatePerformedNanos - this.timeOfImpactNanos);
+        this.lastContactCount = this.contactCount;
+        this.stepped = true;
+    }
+
+    private void startDetection() {
+        if (!this.detecting) {
+            this.detecting = true;
+            this.detectStartNanos = System.nanoTime();
+            this.contactCount = 0;
+            this.pairCount = 0;
+        }
+    }
+
+    @Override
+    public boolean collision(final Body body1, final Body body2) {
+        return true;
+    }
+
+    @Override
+    public boolean collision(final Body body1, final BodyFixture fixture1, final Body body2,
+            final BodyFixture fixture2, final Penetration penetration) {
+        return true;
+    }
+
+    @Override
+    public boolean collision(final Body body1, final BodyFixture fixture1, final Body body2,
+            final BodyFixture fixture2, final Manifold manifold) {
+        return true;
+    }
+
+    @Override
+    public boolean collision(final ContactConstraint contactConstraint) {
+        this.contactCount++;
+
+        final Body body1 = contactConstraint.getBody1();
+        final Body body2 = contactConstraint.getBody2();
+        if (!contactConstraint.isSensor() && body1.isDynamic() && body2.isDynamic()) {
+            if (this.pairCount * 2 == this.pairs.length) {
+                final Body[] grown = new Body[this.pairs.length * 2];
+                System.arraycopy(this.pairs, 0, grown, 0, this.pairs.length);
+                this.pairs = grown;
+            }
+            this.pairs[this.pairCount * 2] = body1;
+            this.pairs[this.pairCount * 2 + 1] = body2;
+            this.pairCount++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true once if the world has been stepped since the last call.
+     * 
+     * @return true if the world has been stepped.
+     */
+    public boolean pollStepped() {
+        final boolean result = this.stepped;
+        this.stepped = false;
+        return result;
+    }
+
+    /**
+     * Counts the islands the solver will build in the next step: the groups of awake dynamic bodies connected by the
+     * contacts found at the end of the last step or by joints.
+     * 
+     * @return the number of islands.
+     */
+    public int countIslands() {
+        // By index, getBodies() and getJoints() copy the lists of the world.
+        final int bodyCount = this.world.getBodyCount();
+        final int stamp = ++this.islandStamp;
+        int islands = 0;
+
+        if (this.islandNodes.size() > bodyCount * 2 + INITIAL_PAIR_CAPACITY) {
+            // Forget the bodies that have been removed.
+            this.islandNodes.clear();
+        }
+
+        for (int i = 0; i < bodyCount; i++) {
+            final Body body = this.world.getBody(i);
+            if (body.isActive() && body.isDynamic() && !body.isAsleep()) {
+                IslandNode node = this.islandNodes.get(body);
+                if (node == null) {
+                    node = new IslandNode();
+                    this.islandNodes.put(body, node);
+                }
+                node.parent = node;
+                node.stamp = stamp;
+                islands++;
+            }
+        }
+
+        for (int i = 0; i < this.pairCount; i++) {
+            if (union(this.pairs[i * 2], this.pairs[i * 2 + 1], stamp)) {
+                islands--;
+            }
+        }
+
+        for (int i = 0, size = this.world.getJointCount(); i < size; i++) {
+            final Joint joint = this.world.getJoint(i);
+            if (union(joint.getBody1(), joint.getBody2(), stamp)) {
+                islands--;
+            }
+        }
+
+        return islands;
+    }
+
+    private boolean union(final Body body1, final Body body2, final int stamp) {
+        final IslandNode node1 = this.islandNodes.get(body1);
+        final IslandNode node2 = this.islandNodes.get(body2);
+        if (node1 == null || node2 == null || node1.stamp != stamp || node2.stamp != stamp) {
+            return false;
+        }
+
+        final IslandNode root1 = node1.find();
+        final IslandNode root2 = node2.find();
+        if (root1 == root2) {
+            return false;
+        }
+        root2.parent = root1;
+        return true;
+    }
+
+    public World getWorld() {
+        return this.world;
+    }
+
+    public long getLastStepNanos() {
+        return this.lastStepNanos;
+    }
+
+    public long getLastBroadphaseNanos() {
+        return this.lastBroadphaseNanos;
+    }
+
+    public long getLastNarrowphaseNanos() {
+        return this.lastNarrowphaseNanos;
+    }
+
+    public long getLastSolverNanos() {
+        return this.lastSolverNanos;
+    }
+
+    public long getLastTimeOfImpactNanos() {
+        return this.lastTimeOfImpactNanos;
+    }
+
+    /**
+     * Returns the number of contact constraints found by the last step.
+     * 
+     * @return the contact count.
+     */
+    public int getLastContactCount() {
+        return this.lastContactCount;
+    }
+
+    private static final class IslandNode {
+
+        private IslandNode parent = this;
+        private int stamp;
+
+        private IslandNode find() {
+            IslandNode root = this;
+            while (root.parent != root) {
+                root.parent = root.parent.parent;
+                root = root.parent;
+            }
+            return root;
+        }
+
+    }
+
+    private final class TimedBroadphaseDetector implements BroadphaseDetector<Body> {
+
+        @Override
+        public void add(final Body body) {
+            PhysicsStepProfiler.this.broadphaseDetector.add(body);
+        }
+
+        @Override
+        public void remove(final Body body) {
+            PhysicsStepProfiler.this.broadphaseDetector.remove(body);
+        }
+
+        @Override
+        public void update(final Body body) {
+            // Bodies are only updated by the detection of the step.
+            startDetection();
+            PhysicsStepProfiler.this.broadphaseDetector.update(body);
+        }
+
+        @Override
+        public void clear() {
+            PhysicsStepProfiler.this.broadphaseDetector.clear();
+        }
+
+        @Override
+        public AABB getAABB(final Body body) {
+            return PhysicsStepProfiler.this.broadphaseDetector.getAABB(body);
+        }
+
+        @Override
+        public List<BroadphasePair<Body>> detect() {
+            startDetection();
+            return PhysicsStepProfiler.this.broadphaseDetector.detect();
+        }
+
+        @Override
+        public List<Body> detect(final AABB aabb) {
+            return PhysicsStepProfiler.this.broadphaseDetector.detect(aabb);
+        }
+
+        @Override
+        public List<Body> raycast(final Ray ray, final double length) {
+            return PhysicsStepProfiler.this.broadphaseDetector.raycast(ray, length);
+        }
+
+        @Override
+        public boolean detect(final Body body1, final Body body2) {
+            return PhysicsStepProfiler.this.broadphaseDetector.detect(body1, body2);
+        }
+
+        @Override
+        public boolean detect(final Convex convex1, final Transform transform1, final Convex convex2,
+                final Transform transform2) {
+            return PhysicsStepProfiler.this.broadphaseDetector.detect(convex1, transform1, convex2, transform2);
+        }
+
+        @Override
+        public double getAABBExpansion() {
+            return PhysicsStepProfiler.this.broadphaseDetector.getAABBExpansion();
+        }
+
+        @Override
+        public void setAABBExpansion(final double expansion) {
+            PhysicsStepProfiler.this.broadphaseDetector.setAABBExpansion(expansion);
+        }
+
+        @Override
+        public void shiftCoordinates(final Vector2 shift) {
+            PhysicsStepProfiler.this.broadphaseDetector.shiftCoordinates(shift);
+        }
+
+    }
+
+    private final class TimedNarrowphaseDetector implements NarrowphaseDetector {
+
+        @Override
+        public boolean detect(final Convex convex1, final Transform transform1, final Convex convex2,
+                final Transform transform2, final Penetration penetration) {
+            final long start = System.nanoTime();
+            final boolean result = PhysicsStepProfiler.this.narrowphaseDetector.detect(convex1, transform1, convex2,
+                    transform2, penetration);
+            PhysicsStepProfiler.this.narrowphaseNanos += System.nanoTime() - start;
+            return result;
+        }
+
+        @Override
+        public boolean detect(final Convex convex1, final Transform transform1, final Convex convex2,
+                final Transform transform2) {
+            final long start = System.nanoTime();
+            final boolean result = PhysicsStepProfiler.this.narrowphaseDetector.detect(convex1, transform1, convex2,
+                    transform2);
+            PhysicsStepProfiler.this.narrowphaseNanos += System.nanoTime() - start;
+            return result;
+        }
+
+    }
+
+    private final class TimedManifoldSolver implements ManifoldSolver {
+
+        @Override
+        public boolean getManifold(final Penetration penetration, final Convex convex1, final Transform transform1,
+                final Convex convex2, final Transform transform2, final Manifold manifold) {
+            final long start = System.nanoTime();
+            final boolean result = PhysicsStepProfiler.this.manifoldSolver.getManifold(penetration, convex1,
+                    transform1, convex2, transform2, manifold);
+            PhysicsStepProfiler.this.narrowphaseNanos += System.nanoTime() - start;
+            return result;
+        }
+
+    }
+
+    private final class TimedTimeOfImpactDetector implements TimeOfImpactDetector {
+
+        @Override
+        public boolean getTimeOfImpact(final Convex convex1, final Transform transform1, final Vector2 dp1,
+                final double da1, final Convex convex2, final Transform transform2, final Vector2 dp2,
+                final double da2, final TimeOfImpact toi) {
+            final long start = System.nanoTime();
+            final boolean result = PhysicsStepProfiler.this.timeOfImpactDetector.getTimeOfImpact(convex1,
+                    transform1, dp1, da1, convex2, transform2, dp2, da2, toi);
+            PhysicsStepProfiler.this.timeOfImpactNanos += System.nanoTime() - start;
+            return result;
+        }
+
+        @Override
+        public boolean getTimeOfImpact(final Convex convex1, final Transform transform1, final Vector2 dp1,
+                final double da1, final Convex convex2, final Transform transform2, final Vector2 dp2,
+                final double da2, final double t1, final double t2, final TimeOfImpact toi) {
+            final long start = System.nanoTime();
+            final boolean result = PhysicsStepProfiler.this.timeOfImpactDetector.getTimeOfImpact(convex1,
+                    transform1, dp1, da1, convex2, transform2, dp2, da2, t1, t2, toi);
+            PhysicsStepProfiler.this.timeOfImpactNanos += System.nanoTime() - start;
+            return result;
+        }
+
+    }
+
+}
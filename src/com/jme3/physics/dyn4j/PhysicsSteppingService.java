@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Steps many {@link PhysicsSpace}s on a bounded pool of threads, sized to the number of cores by default. Used instead
+ * of one {@link PhysicsLoop} per space when a process runs many spaces, like a server hosting many rooms.
+ * <p>
+ * Each registered space is stepped at its own tick rate. Workers always take the space whose tick is the most
+ * overdue, a space is never stepped by two workers at once, and a late space performs at most
+ * {@link PhysicsSpaceRegistration#getMaxSubSteps()} steps per turn, so a hot space can't starve the others. Step
+ * times are accounted per space in its {@link PhysicsSpaceRegistration}.
+ * 
+ * @author H
+ */
+public class PhysicsSteppingService {
+
+    private static final AtomicInteger serviceCount = new AtomicInteger();
+
+    protected final DelayQueue<PhysicsSpaceRegistration> queue = new DelayQueue<PhysicsSpaceRegistration>();
+    protected final List<PhysicsSpaceRegistration> registrations = new ArrayList<PhysicsSpaceRegistration>();
+
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    public PhysicsSteppingService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public PhysicsSteppingService(final int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        }
+
+        final int service = serviceCount.incrementAndGet();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        };
+
+        this.workers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            this.workers[i] = new Thread(worker, "jME3 Dyn4j Stepping " + service + "-" + (i + 1));
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    private void work() {
+        while (this.running) {
+            final PhysicsSpaceRegistration registration;
+            try {
+                registration = this.queue.take();
+            } catch (final InterruptedException ex) {
+                // Interrupted by shutdown.
+                continue;
+            }
+
+            // Unregistered spaces are dropped when they come out of the queue.
+            if (registration.isRegistered()) {
+                registration.run();
+            }
+            if (registration.isRegistered()) {
+                this.queue.put(registration);
+            }
+        }
+    }
+
+    /**
+     * Registers a physics space to be stepped at the given rate.
+     * 
+     * @param physicsSpace
+     *            the physics space.
+     * @param tickRate
+     *            the steps per second; sets the fixed time step of the space.
+     * @return the registration, used to pause, unregister and read the step times of the space.
+     */
+    public PhysicsSpaceRegistration register(final PhysicsSpace physicsSpace, final float tickRate) {
+        if (tickRate <= 0) {
+            throw new IllegalArgumentException("Tick rate must be greater than zero.");
+        }
+        physicsSpace.setFixedTimeStep(1f / tickRate);
+        return register(physicsSpace);
+    }
+
+    /**
+     * Registers a physics space to be stepped at the rate given by its fixed time step.
+     * 
+     * @param physicsSpace
+     *            the physics space.
+     * @return the registration, used to pause, unregister and read the step times of the space.
+     */
+    public PhysicsSpaceRegistration register(final PhysicsSpace physicsSpace) {
+        if (!this.running) {
+            throw new IllegalStateException("Stepping service has been shut down.");
+        }
+
+        final PhysicsSpaceRegistration registration = new PhysicsSpaceRegistration(this, physicsSpace);
+        synchronized (this.registrations) {
+            this.registrations.add(registration);
+        }
+        this.queue.put(registration);
+
+        return registration;
+    }
+
+    /**
+     * Stops stepping the space of the registration. A step in progress is not interrupted, but this method waits for
+     * it to finish, so the space can be cleared right after. Can be called from the step itself.
+     * 
+     * @param registration
+     *            the registration.
+     */
+    public void unregister(final PhysicsSpaceRegistration registration) {
+        registration.registered = false;
+        this.queue.remove(registration);
+        synchronized (this.registrations) {
+            this.registrations.remove(registration);
+        }
+
+        // Wait for a worker still stepping the space.
+        registration.stepLock.lock();
+        registration.stepLock.unlock();
+    }
+
+    /**
+     * Returns a copy of the current registrations, to find the spaces that take the most time.
+     * 
+     * @return the registrations.
+     */
+    public List<PhysicsSpaceRegistration> getRegistrations() {
+        synchronized (this.registrations) {
+            return new ArrayList<PhysicsSpaceRegistration>(this.registrations);
+        }
+    }
+
+    public int getThreadCount() {
+        return this.workers.length;
+    }
+
+    /**
+     * Unregisters all spaces and stops the worker threads.
+     */
+    public void shutdown() {
+        this.running = false;
+        for (final PhysicsSpaceRegistration registration : getRegistrations()) {
+            unregister(registration);
+        }
+        for (final Thread worker : this.workers) {
+            worker.interrupt();
+        }
+    }
+
+}
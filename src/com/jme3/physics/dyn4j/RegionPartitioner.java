@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.geometry.Transform;
+
+/**
+ * Partitions bodies by the cell of a regular grid their position falls in. Cells are spread over the partitions.
+ * Bodies close to each other across a cell border are kept in the same world by {@link PartitionedPhysicsSpace}, so
+ * the cell size only matters for performance: it should be larger than the usual size of a pile of bodies.
+ * 
+ * @author H
+ */
+public class RegionPartitioner implements Partitioner {
+
+    private static final int HASH_PRIME = 73856093;
+
+    protected final double cellWidth;
+    protected final double cellHeight;
+
+    public RegionPartitioner(final double cellWidth, final double cellHeight) {
+        if (cellWidth <= 0 || cellHeight <= 0) {
+            throw new IllegalArgumentException("Cell size must be greater than zero.");
+        }
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+    }
+
+    @Override
+    public int getPartition(final Body body, final int partitionCount) {
+        final Transform transform = body.getTransform();
+        final int cellX = (int) Math.floor(transform.getTranslationX() / this.cellWidth);
+        final int cellY = (int) Math.floor(transform.getTranslationY() / this.cellHeight);
+
+        final int hash = cellX * HASH_PRIME ^ cellY;
+        return (hash % partitionCount + partitionCount) % partitionCount;
+    }
+
+    public double getCellWidth() {
+        return this.cellWidth;
+    }
+
+    public double getCellHeight() {
+        return this.cellHeight;
+    }
+
+}
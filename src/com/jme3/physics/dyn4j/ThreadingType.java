@@ -42,8 +42,16 @@ public enum ThreadingType {
     SEQUENTIAL,
     /**
      * Parallel threaded mode; physics update and rendering are executed in parallel, update order is kept.<br/>
-     * Multiple Dyn4jAppStates will execute in parallel in this mode.
+     * Multiple Dyn4jAppStates will execute in parallel in this mode.<br/>
+     * Changes to the physics space from other threads must go through {@link PhysicsSpace#getCommandQueue()}.
      */
     PARALLEL,
+    /**
+     * Pipelined mode; the physics step for the next frame starts on its own thread as soon as the snapshot of the last
+     * step is handed to the render thread, so physics and rendering fully overlap.<br/>
+     * Rendered transforms are one frame behind the simulation. Changes to the physics space from other threads must
+     * go through {@link PhysicsSpace#getCommandQueue()}.
+     */
+    PIPELINED,
 
 }
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.control;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.geometry.Transform;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.FastMath;
+import com.jme3.physics.dyn4j.Converter;
+import com.jme3.physics.dyn4j.PhysicsSnapshot;
+import com.jme3.physics.dyn4j.PhysicsSpace;
+import com.jme3.physics.dyn4j.PhysicsSpaceListener;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.scene.mesh.IndexBuffer;
+import com.jme3.util.BufferUtils;
+
+/**
+ * Renders many bodies sharing the same mesh, like debris or bullets, with one {@link Geometry} and one draw call: the
+ * transform of every body is written straight into the vertex buffers of a batched mesh, without a spatial or control
+ * per body.
+ * <p>
+ * The control must be added to a {@link Geometry}, whose mesh is replaced by the batch. Positions and normals of the
+ * template are copied once per body, rotated around z and translated by the body transform on every update; bodies
+ * which did not move are not rewritten. Transforms are read like in {@link Dyn4jBodyControl}, from the snapshot when
+ * the physics space publishes one. Bodies removed from the physics space are removed from the batch on the next
+ * update, as long as the control is added to a spatial; otherwise they must be removed with {@link #removeBody(Body)}.
+ * <p>
+ * jME 3.0 has no hardware instancing, a batched dynamic mesh gives the single draw call on every renderer at the cost
+ * of transforming vertices on the CPU, so the template should be small.
+ * 
+ * @author H
+ */
+public class Dyn4jBodyBatchControl extends AbstractControl {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    protected final Mesh template;
+    protected final PhysicsSpace physicsSpace;
+
+    protected Body[] bodies = new Body[INITIAL_CAPACITY];
+    protected int size = 0;
+    private final Map<Body, Integer> indices = new IdentityHashMap<Body, Integer>();
+
+    /** A body added to or removed from the physics space, applied on the next update. */
+    private static final class Change {
+
+        final Body body;
+        final boolean added;
+
+        Change(final Body body, final boolean added) {
+            this.body = body;
+            this.added = added;
+        }
+
+    }
+
+    // Changes may come from the thread stepping the physics space.
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<Change>();
+    private final Map<Body, Boolean> removedBodies = new IdentityHashMap<Body, Boolean>();
+
+    private final PhysicsSpaceListener spaceListener = new PhysicsSpaceListener() {
+
+        @Override
+        public void bodyAdded(final Body body) {
+            // Pooled bodies can come back before the next update.
+            Dyn4jBodyBatchControl.this.changes.add(new Change(body, true));
+        }
+
+        @Override
+        public void bodyRemoved(final Body body) {
+            Dyn4jBodyBatchControl.this.changes.add(new Change(body, false));
+        }
+
+        @Override
+        public void jointAdded(final Joint joint) {
+        }
+
+        @Override
+        public void jointRemoved(final Joint joint) {
+        }
+
+    };
+
+    // Template data.
+    private final float[] templatePositions;
+    private final float[] templateNormals;
+    private final int[] templateIndices;
+    private final int vertexCount;
+    private final float templateRadius;
+    private final float templateMinZ, templateMaxZ;
+
+    // Batched mesh, sized for the capacity.
+    private final Mesh mesh = new Mesh();
+    private int capacity = 0;
+    private FloatBuffer positions;
+    private FloatBuffer normals;
+    private Buffer indexData;
+
+    // Transform written for every instance, to skip the bodies which did not move.
+    private float[] written = new float[INITIAL_CAPACITY * 3];
+    private boolean[] valid = new boolean[INITIAL_CAPACITY];
+    private int[] snapshotIndices = new int[INITIAL_CAPACITY];
+    private int renderedCount = -1;
+
+    private final Transform renderTransform = new Transform();
+    private final BoundingBox bound = new BoundingBox();
+
+    /**
+     * @param template
+     *            the mesh of one body, centered on the body origin.
+     * @param physicsSpace
+     *            the physics space of the bodies.
+     */
+    public Dyn4jBodyBatchControl(final Mesh template, final PhysicsSpace physicsSpace) {
+        this.template = template;
+        this.physicsSpace = physicsSpace;
+
+        this.templatePositions = BufferUtils.getFloatArray(template.getFloatBuffer(Type.Position));
+        final FloatBuffer normalBuffer = template.getFloatBuffer(Type.Normal);
+        this.templateNormals = normalBuffer != null ? BufferUtils.getFloatArray(normalBuffer) : null;
+        this.vertexCount = this.templatePositions.length / 3;
+
+        final IndexBuffer indexBuffer = template.getIndexBuffer();
+        if (indexBuffer != null) {
+            this.templateIndices = new int[indexBuffer.size()];
+            for (int i = 0; i < this.templateIndices.length; i++) {
+                this.templateIndices[i] = indexBuffer.get(i);
+            }
+        } else {
+            this.templateIndices = new int[this.vertexCount];
+            for (int i = 0; i < this.vertexCount; i++) {
+                this.templateIndices[i] = i;
+            }
+        }
+
+        float radiusSquared = 0;
+        float minZ = Float.POSITIVE_INFINITY;
+        float maxZ = Float.NEGATIVE_INFINITY;
+        for (int v = 0; v < this.vertexCount; v++) {
+            final float x = this.templatePositions[v * 3];
+            final float y = this.templatePositions[v * 3 + 1];
+            final float z = this.templatePositions[v * 3 + 2];
+            radiusSquared = Math.max(radiusSquared, x * x + y * y);
+            minZ = Math.min(minZ, z);
+            maxZ = Math.max(maxZ, z);
+        }
+        this.templateRadius = FastMath.sqrt(radiusSquared);
+        this.templateMinZ = this.vertexCount > 0 ? minZ : 0;
+        this.templateMaxZ = this.vertexCount > 0 ? maxZ : 0;
+
+        this.mesh.setMode(template.getMode());
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void setSpatial(final Spatial spatial) {
+        if (spatial != null && !(spatial instanceof Geometry)) {
+            throw new IllegalArgumentException("Dyn4jBodyBatchControl must be added to a Geometry.");
+        }
+
+        // Only listen while the batch is rendered, the physics space must not keep a removed control.
+        if (this.physicsSpace != null && spatial != null && this.spatial == null) {
+            this.physicsSpace.addListener(this.spaceListener);
+        } else if (this.physicsSpace != null && spatial == null && this.spatial != null) {
+            this.physicsSpace.removeListener(this.spaceListener);
+            this.changes.clear();
+        }
+
+        super.setSpatial(spatial);
+
+        if (spatial != null) {
+            ((Geometry) spatial).setMesh(this.mesh);
+        }
+    }
+
+    /**
+     * Adds a body to the batch.
+     * 
+     * @param body
+     *            the body.
+     */
+    public void addBody(final Body body) {
+        if (this.indices.containsKey(body)) {
+            return;
+        }
+
+        if (this.size == this.capacity) {
+            allocate(this.capacity * 2);
+        }
+
+        this.bodies[this.size] = body;
+        this.valid[this.size] = false;
+        this.snapshotIndices[this.size] = -1;
+        this.indices.put(body, this.size);
+        this.size++;
+    }
+
+    /**
+     * Removes a body from the batch.
+     * 
+     * @param body
+     *            the body.
+     * @return true if it was in the batch.
+     */
+    public boolean removeBody(final Body body) {
+        final Integer index = this.indices.remove(body);
+        if (index == null) {
+            return false;
+        }
+
+        // Move the last instance in the hole, its vertices are rewritten on the next update.
+        final int last = --this.size;
+        if (index != last) {
+            this.bodies[index] = this.bodies[last];
+            this.valid[index] = false;
+            this.snapshotIndices[index] = this.snapshotIndices[last];
+            this.indices.put(this.bodies[index], index);
+        }
+        this.bodies[last] = null;
+        return true;
+    }
+
+    public int getBodyCount() {
+        return this.size;
+    }
+
+    public Mesh getMesh() {
+        return this.mesh;
+    }
+
+    private void allocate(final int newCapacity) {
+        this.capacity = newCapacity;
+
+        this.bodies = Arrays.copyOf(this.bodies, Math.max(newCapacity, this.bodies.length));
+        this.written = Arrays.copyOf(this.written, newCapacity * 3);
+        this.valid = new boolean[newCapacity];
+        this.snapshotIndices = Arrays.copyOf(this.snapshotIndices, newCapacity);
+
+        final int totalVertices = newCapacity * this.vertexCount;
+        this.positions = BufferUtils.createFloatBuffer(totalVertices * 3);
+        this.mesh.setBuffer(Type.Position, 3, this.positions);
+        this.mesh.getBuffer(Type.Position).setUsage(VertexBuffer.Usage.Stream);
+
+        if (this.templateNormals != null) {
+            this.normals = BufferUtils.createFloatBuffer(totalVertices * 3);
+            this.mesh.setBuffer(Type.Normal, 3, this.normals);
+            this.mesh.getBuffer(Type.Normal).setUsage(VertexBuffer.Usage.Stream);
+        }
+
+        // Static data, repeated per instance.
+        for (final Type type : new Type[] { Type.TexCoord, Type.Color }) {
+            final VertexBuffer buffer = this.template.getBuffer(type);
+            if (buffer != null && buffer.getData() instanceof FloatBuffer) {
+                final float[] data = BufferUtils.getFloatArray((FloatBuffer) buffer.getData());
+                final FloatBuffer batched = BufferUtils.createFloatBuffer(data.length * newCapacity);
+                for (int i = 0; i < newCapacity; i++) {
+                    batched.put(data);
+                }
+                batched.flip();
+                this.mesh.setBuffer(type, buffer.getNumComponents(), batched);
+            }
+        }
+
+        final int indexCount = this.templateIndices.length;
+        if (totalVertices > 0xFFFF) {
+            final IntBuffer batched = BufferUtils.createIntBuffer(indexCount * newCapacity);
+            for (int i = 0; i < newCapacity; i++) {
+                for (int j = 0; j < indexCount; j++) {
+                    batched.put(this.templateIndices[j] + i * this.vertexCount);
+                }
+            }
+            this.indexData = batched;
+            batched.flip();
+            this.mesh.setBuffer(Type.Index, 1, batched);
+        } else {
+            final ShortBuffer batched = BufferUtils.createShortBuffer(indexCount * newCapacity);
+            for (int i = 0; i < newCapacity; i++) {
+                for (int j = 0; j < indexCount; j++) {
+                    batched.put((short) (this.templateIndices[j] + i * this.vertexCount));
+                }
+            }
+            this.indexData = batched;
+            batched.flip();
+            this.mesh.setBuffer(Type.Index, 1, batched);
+        }
+
+        // All instances are rewritten in the new buffers.
+        this.renderedCount = -1;
+        this.mesh.updateCounts();
+    }
+
+    @Override
+    protected void controlUpdate(final float tpf) {
+        if (!this.changes.isEmpty()) {
+            removeRemovedBodies();
+        }
+
+        final PhysicsSnapshot snapshot = this.physicsSpace != null ? this.physicsSpace.getSnapshot() : null;
+        final boolean interpolate = snapshot == null && this.physicsSpace != null
+                && this.physicsSpace.isInterpolationEnabled();
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        boolean changed = false;
+
+        for (int i = 0; i < this.size; i++) {
+            final float x, y, angle;
+            if (snapshot != null) {
+                final int index = snapshot.indexOf(this.bodies[i], this.snapshotIndices[i]);
+                this.snapshotIndices[i] = index;
+                if (index < 0) {
+                    continue;
+                }
+                x = snapshot.getX(index);
+                y = snapshot.getY(index);
+                angle = snapshot.getAngle(index);
+            } else {
+                final Transform transform = interpolate ? this.physicsSpace.getInterpolatedTransform(this.bodies[i],
+                        this.renderTransform) : this.bodies[i].getTransform();
+                x = Converter.toFloat(transform.getTranslationX());
+                y = Converter.toFloat(transform.getTranslationY());
+                angle = Converter.toFloat(transform.getRotation());
+            }
+
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+
+            final int offset = i * 3;
+            if (this.valid[i] && this.written[offset] == x && this.written[offset + 1] == y
+                    && this.written[offset + 2] == angle) {
+                continue;
+            }
+
+            writeInstance(i, x, y, angle);
+            this.written[offset] = x;
+            this.written[offset + 1] = y;
+            this.written[offset + 2] = angle;
+            this.valid[i] = true;
+            changed = true;
+        }
+
+        if (this.size != this.renderedCount) {
+            this.indexData.limit(this.size * this.templateIndices.length);
+            this.mesh.getBuffer(Type.Index).updateData(this.indexData);
+            this.mesh.updateCounts();
+            this.renderedCount = this.size;
+            changed = true;
+        }
+
+        if (!changed) {
+            return;
+        }
+
+        this.mesh.getBuffer(Type.Position).updateData(this.positions);
+        if (this.normals != null) {
+            this.mesh.getBuffer(Type.Normal).updateData(this.normals);
+        }
+
+        // Bound of the body origins grown by the template radius, cheaper than reading back all the vertices.
+        final BoundingBox bound = this.bound;
+        if (minX <= maxX) {
+            final float radius = this.templateRadius;
+            bound.getCenter().set((minX + maxX) * 0.5f, (minY + maxY) * 0.5f,
+                    (this.templateMinZ + this.templateMaxZ) * 0.5f);
+            bound.setXExtent((maxX - minX) * 0.5f + radius);
+            bound.setYExtent((maxY - minY) * 0.5f + radius);
+            bound.setZExtent((this.templateMaxZ - this.templateMinZ) * 0.5f);
+        } else {
+            bound.getCenter().set(0, 0, 0);
+            bound.setXExtent(0);
+            bound.setYExtent(0);
+            bound.setZExtent(0);
+        }
+        // Not updateModelBound(), which would read all the vertices back.
+        ((Geometry) this.spatial).setModelBound(bound);
+    }
+
+    private void removeRemovedBodies() {
+        Change change;
+        while ((change = this.changes.poll()) != null) {
+            if (change.added) {
+                this.removedBodies.remove(change.body);
+            } else {
+                this.removedBodies.put(change.body, Boolean.TRUE);
+            }
+        }
+        if (this.removedBodies.isEmpty()) {
+            return;
+        }
+
+        // From the end, removing moves the last instance in the hole.
+        for (int i = this.size - 1; i >= 0; i--) {
+            if (this.removedBodies.containsKey(this.bodies[i])) {
+                removeBody(this.bodies[i]);
+            }
+        }
+        this.removedBodies.clear();
+    }
+
+    private void writeInstance(final int instance, final float x, final float y, final float angle) {
+        final float cos = FastMath.cos(angle);
+        final float sin = FastMath.sin(angle);
+        final float[] source = this.templatePositions;
+        final FloatBuffer positions = this.positions;
+        int index = instance * this.vertexCount * 3;
+
+        for (int v = 0; v < source.length; v += 3) {
+            final float px = source[v];
+            final float py = source[v + 1];
+            positions.put(index, px * cos - py * sin + x);
+            positions.put(index + 1, px * sin + py * cos + y);
+            positions.put(index + 2, source[v + 2]);
+            index += 3;
+        }
+
+        if (this.normals != null) {
+            final float[] normalSource = this.templateNormals;
+            final FloatBuffer normals = this.normals;
+            index = instance * this.vertexCount * 3;
+            for (int v = 0; v < normalSource.length; v += 3) {
+                final float nx = normalSource[v];
+                final float ny = normalSource[v + 1];
+                normals.put(index, nx * cos - ny * sin);
+                normals.put(index + 1, nx * sin + ny * cos);
+                normals.put(index + 2, normalSource[v + 2]);
+                index += 3;
+            }
+        }
+    }
+
+    @Override
+    protected void controlRender(final RenderManager rm, final ViewPort vp) {
+    }
+
+}
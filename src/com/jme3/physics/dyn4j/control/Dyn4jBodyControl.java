@@ -37,6 +37,10 @@ import org.dyn4j.geometry.Transform;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector3f;
 import com.jme3.physics.dyn4j.Converter;
+import com.jme3.physics.dyn4j.PhysicsBodyIndex;
+import com.jme3.physics.dyn4j.PhysicsSnapshot;
+import com.jme3.physics.dyn4j.PhysicsSpace;
+import com.jme3.physics.dyn4j.PhysicsSpatialSync;
 import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.ViewPort;
 import com.jme3.scene.Spatial;
@@ -50,36 +54,136 @@ import com.jme3.util.TempVars;
 public class Dyn4jBodyControl extends AbstractControl {
 
     protected Body body = null;
+    protected PhysicsSpace physicsSpace = null;
+
+    private final Transform renderTransform = new Transform();
+    private int snapshotIndex = -1;
+
+    // Last values set on the spatial, to leave it untouched (and its world transform and bound clean) while the body
+    // does not move.
+    private boolean synced = false;
+    private float lastX, lastY, lastAngle;
 
     public Dyn4jBodyControl(final Body body) {
+        this(body, null);
+    }
+
+    /**
+     * Creates a control that takes the body transform from the given physics space, so it is read from the published
+     * snapshot when {@link PhysicsSpace#isSnapshotEnabled()} and interpolated between physics steps when
+     * {@link PhysicsSpace#isInterpolationEnabled()}.
+     * 
+     * @param body
+     *            the body to follow.
+     * @param physicsSpace
+     *            the physics space the body belongs to.
+     */
+    public Dyn4jBodyControl(final Body body, final PhysicsSpace physicsSpace) {
         this.body = body;
+        this.physicsSpace = physicsSpace;
     }
 
     @Override
     public void setSpatial(final Spatial spatial) {
+        // Keep the body index of the physics space able to find the body of a picked spatial. Bodies whose add is
+        // still queued are bound by the index when they are added.
+        if (spatial != null) {
+            bindSpatial(this.physicsSpace, spatial);
+        } else {
+            unbindSpatial(this.physicsSpace);
+        }
+
         super.setSpatial(spatial);
+        this.synced = false;
+    }
+
+    private void bindSpatial(final PhysicsSpace physicsSpace, final Spatial spatial) {
+        if (physicsSpace != null) {
+            physicsSpace.getBodyIndex().setSpatial(this.body, spatial);
+        }
+    }
+
+    private void unbindSpatial(final PhysicsSpace physicsSpace) {
+        if (physicsSpace != null && this.spatial != null) {
+            final PhysicsBodyIndex bodyIndex = physicsSpace.getBodyIndex();
+            if (bodyIndex.getSpatial(this.body) == this.spatial) {
+                bodyIndex.setSpatial(this.body, null);
+            }
+        }
     }
 
     public Body getBody() {
         return this.body;
     }
 
+    public PhysicsSpace getPhysicsSpace() {
+        return this.physicsSpace;
+    }
+
+    public void setPhysicsSpace(final PhysicsSpace physicsSpace) {
+        if (this.spatial != null && physicsSpace != this.physicsSpace) {
+            unbindSpatial(this.physicsSpace);
+            bindSpatial(physicsSpace, this.spatial);
+        }
+        this.physicsSpace = physicsSpace;
+    }
+
     @Override
     protected void controlUpdate(final float tpf) {
+        final PhysicsSnapshot snapshot = this.physicsSpace != null ? this.physicsSpace.getSnapshot() : null;
+
+        if (snapshot != null) {
+            // Body is being updated on another thread, only read the published transforms.
+            this.snapshotIndex = snapshot.indexOf(this.body, this.snapshotIndex);
+            if (this.snapshotIndex >= 0) {
+                setPhysicTransform(snapshot.getX(this.snapshotIndex), snapshot.getY(this.snapshotIndex),
+                        snapshot.getAngle(this.snapshotIndex));
+            }
+            return;
+        }
+
+        // Resting body, nothing to do once its final transform has been applied.
+        if (this.synced && PhysicsSpatialSync.isResting(this.body, this.lastX, this.lastY, this.lastAngle)) {
+            return;
+        }
+
+        final Transform transform;
+        if (this.physicsSpace != null) {
+            transform = this.physicsSpace.getInterpolatedTransform(this.body, this.renderTransform);
+        } else {
+            transform = this.body.getTransform();
+        }
+
         // Update spatial location and rotation
-        setPhysicLocation(this.body);
-        setPhysicRotation(this.body);
+        setPhysicTransform(Converter.toFloat(transform.getTranslationX()),
+                Converter.toFloat(transform.getTranslationY()), Converter.toFloat(transform.getRotation()));
     }
 
     @Override
     protected void controlRender(final RenderManager rm, final ViewPort vp) {
     }
 
-    private void setPhysicRotation(final Body physicBody) {
-        final Transform transform = physicBody.getTransform();
+    /**
+     * Forces the spatial to be set from the body on the next update, e.g. after it has been moved by something else.
+     */
+    public void invalidate() {
+        this.synced = false;
+    }
 
-        final float rotation = Converter.toFloat(transform.getRotation());
+    private void setPhysicTransform(final float posX, final float posY, final float rotation) {
+        if (!this.synced || posX != this.lastX || posY != this.lastY) {
+            setPhysicLocation(posX, posY);
+            this.lastX = posX;
+            this.lastY = posY;
+        }
+        if (!this.synced || rotation != this.lastAngle) {
+            setPhysicRotation(rotation);
+            this.lastAngle = rotation;
+        }
+        this.synced = true;
+    }
 
+    private void setPhysicRotation(final float rotation) {
         final TempVars tempVars = TempVars.get();
         final Quaternion quaternion = tempVars.quat1;
         quaternion.fromAngleAxis(rotation, Vector3f.UNIT_Z);
@@ -89,12 +193,7 @@ public class Dyn4jBodyControl extends AbstractControl {
         tempVars.release();
     }
 
-    private void setPhysicLocation(final Body physicBody) {
-        final Transform transform = physicBody.getTransform();
-
-        final float posX = Converter.toFloat(transform.getTranslationX());
-        final float posY = Converter.toFloat(transform.getTranslationY());
-
+    private void setPhysicLocation(final float posX, final float posY) {
         this.spatial.setLocalTranslation(posX, posY, this.spatial.getLocalTranslation().z);
     }
 
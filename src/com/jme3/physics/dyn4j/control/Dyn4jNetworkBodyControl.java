@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.control;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Vector3f;
+import com.jme3.physics.dyn4j.replication.ReplicationDecoder;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.control.AbstractControl;
+import com.jme3.util.TempVars;
+
+/**
+ * Control for a remote body, whose state is only received from the server: the spatial is extrapolated (dead
+ * reckoning) from the last known linear and angular velocity, so no local body nor world step is needed.
+ * <p>
+ * When a new state arrives, the difference with the displayed position is kept as an error offset which fades out
+ * over the smoothing time instead of snapping. Errors above the snap thresholds, typically teleports, are applied at
+ * once.
+ * <p>
+ * The state is read from a {@link ReplicationDecoder} by net id, or set with
+ * {@link #setState(float, float, float, float, float, float)} by other network layers.
+ * 
+ * @author H
+ */
+public class Dyn4jNetworkBodyControl extends AbstractControl {
+
+    public static final float DEFAULT_SMOOTHING_TIME = 0.1f;
+    public static final float DEFAULT_SNAP_DISTANCE = 2f;
+    public static final float DEFAULT_SNAP_ANGLE = FastMath.HALF_PI;
+    public static final float DEFAULT_MAX_EXTRAPOLATION_TIME = 0.25f;
+
+    protected ReplicationDecoder decoder = null;
+    protected int netId = -1;
+    private int decodedSequence = 0;
+
+    protected float smoothingTime = DEFAULT_SMOOTHING_TIME;
+    protected float snapDistance = DEFAULT_SNAP_DISTANCE;
+    protected float snapAngle = DEFAULT_SNAP_ANGLE;
+    protected float maxExtrapolationTime = DEFAULT_MAX_EXTRAPOLATION_TIME;
+
+    // Last authoritative state.
+    private boolean hasState = false;
+    private float x, y, angle;
+    private float velocityX, velocityY, angularVelocity;
+    private float elapsedTime = 0;
+
+    // Displayed minus extrapolated, fading out.
+    private float errorX, errorY, errorAngle;
+
+    public Dyn4jNetworkBodyControl() {
+    }
+
+    /**
+     * Creates a control that follows the state of a net id in a decoder.
+     * 
+     * @param decoder
+     *            the decoder.
+     * @param netId
+     *            the net id of the body on the server.
+     */
+    public Dyn4jNetworkBodyControl(final ReplicationDecoder decoder, final int netId) {
+        this.decoder = decoder;
+        this.netId = netId;
+    }
+
+    /**
+     * Sets the authoritative state of the body, as just received. The spatial is corrected from its current position
+     * over the smoothing time, or snapped if the error is above the snap thresholds.
+     * 
+     * @param x
+     *            the position on x.
+     * @param y
+     *            the position on y.
+     * @param angle
+     *            the rotation in radians.
+     * @param velocityX
+     *            the linear velocity on x.
+     * @param velocityY
+     *            the linear velocity on y.
+     * @param angularVelocity
+     *            the angular velocity.
+     */
+    public void setState(final float x, final float y, final float angle, final float velocityX,
+            final float velocityY, final float angularVelocity) {
+        if (this.hasState) {
+            // Keep the displayed pose: the error is what is left to correct.
+            final float extrapolation = extrapolationTime();
+            this.errorX += this.x + this.velocityX * extrapolation - x;
+            this.errorY += this.y + this.velocityY * extrapolation - y;
+            this.errorAngle = wrapAngle(this.errorAngle + this.angle + this.angularVelocity * extrapolation - angle);
+
+            if (this.errorX * this.errorX + this.errorY * this.errorY > this.snapDistance * this.snapDistance
+                    || FastMath.abs(this.errorAngle) > this.snapAngle) {
+                resetError();
+            }
+        }
+
+        this.x = x;
+        this.y = y;
+        this.angle = angle;
+        this.velocityX = velocityX;
+        this.velocityY = velocityY;
+        this.angularVelocity = angularVelocity;
+        this.elapsedTime = 0;
+        this.hasState = true;
+    }
+
+    /**
+     * Moves the spatial to the last authoritative state right away, e.g. after a respawn.
+     */
+    public void snap() {
+        resetError();
+    }
+
+    @Override
+    protected void controlUpdate(final float tpf) {
+        if (this.decoder != null && this.decoder.getSequence() != this.decodedSequence) {
+            this.decodedSequence = this.decoder.getSequence();
+            if (this.decoder.contains(this.netId)) {
+                readDecoder();
+            }
+        }
+
+        if (!this.hasState) {
+            return;
+        }
+
+        this.elapsedTime += tpf;
+
+        if (this.smoothingTime > 0) {
+            final float decay = (float) Math.exp(-tpf / this.smoothingTime);
+            this.errorX *= decay;
+            this.errorY *= decay;
+            this.errorAngle *= decay;
+        } else {
+            resetError();
+        }
+
+        final float extrapolation = extrapolationTime();
+        final float posX = this.x + this.velocityX * extrapolation + this.errorX;
+        final float posY = this.y + this.velocityY * extrapolation + this.errorY;
+        final float rotation = this.angle + this.angularVelocity * extrapolation + this.errorAngle;
+
+        this.spatial.setLocalTranslation(posX, posY, this.spatial.getLocalTranslation().z);
+
+        final TempVars tempVars = TempVars.get();
+        final Quaternion quaternion = tempVars.quat1;
+        quaternion.fromAngleAxis(rotation, Vector3f.UNIT_Z);
+        this.spatial.setLocalRotation(quaternion);
+        tempVars.release();
+    }
+
+    @Override
+    protected void controlRender(final RenderManager rm, final ViewPort vp) {
+    }
+
+    private void readDecoder() {
+        final ReplicationDecoder decoder = this.decoder;
+        final int netId = this.netId;
+        if (decoder.isAsleep(netId)) {
+            // Do not drift resting bodies.
+            setState(decoder.getX(netId), decoder.getY(netId), decoder.getAngle(netId), 0, 0, 0);
+        } else {
+            setState(decoder.getX(netId), decoder.getY(netId), decoder.getAngle(netId),
+                    decoder.getLinearVelocityX(netId), decoder.getLinearVelocityY(netId),
+                    decoder.getAngularVelocity(netId));
+        }
+    }
+
+    private float extrapolationTime() {
+        return Math.min(this.elapsedTime, this.maxExtrapolationTime);
+    }
+
+    private void resetError() {
+        this.errorX = 0;
+        this.errorY = 0;
+        this.errorAngle = 0;
+    }
+
+    private static float wrapAngle(final float angle) {
+        float result = angle % FastMath.TWO_PI;
+        if (result > FastMath.PI) {
+            result -= FastMath.TWO_PI;
+        } else if (result < -FastMath.PI) {
+            result += FastMath.TWO_PI;
+        }
+        return result;
+    }
+
+    public ReplicationDecoder getDecoder() {
+        return this.decoder;
+    }
+
+    public int getNetId() {
+        return this.netId;
+    }
+
+    public void setDecoder(final ReplicationDecoder decoder, final int netId) {
+        this.decoder = decoder;
+        this.netId = netId;
+        this.decodedSequence = 0;
+    }
+
+    public float getSmoothingTime() {
+        return this.smoothingTime;
+    }
+
+    /**
+     * Sets the time constant over which the error with a new state is corrected, 0 to snap to every state.
+     * 
+     * @param smoothingTime
+     *            the time in seconds.
+     */
+    public void setSmoothingTime(final float smoothingTime) {
+        this.smoothingTime = smoothingTime;
+    }
+
+    public float getSnapDistance() {
+        return this.snapDistance;
+    }
+
+    /**
+     * Sets the position error above which the spatial snaps to the new state instead of being smoothed.
+     * 
+     * @param snapDistance
+     *            the distance.
+     */
+    public void setSnapDistance(final float snapDistance) {
+        this.snapDistance = snapDistance;
+    }
+
+    public float getSnapAngle() {
+        return this.snapAngle;
+    }
+
+    /**
+     * Sets the rotation error above which the spatial snaps to the new state instead of being smoothed.
+     * 
+     * @param snapAngle
+     *            the angle in radians.
+     */
+    public void setSnapAngle(final float snapAngle) {
+        this.snapAngle = snapAngle;
+    }
+
+    public float getMaxExtrapolationTime() {
+        return this.maxExtrapolationTime;
+    }
+
+    /**
+     * Sets how long the state is extrapolated without news from the server, the spatial stops after it.
+     * 
+     * @param maxExtrapolationTime
+     *            the time in seconds.
+     */
+    public void setMaxExtrapolationTime(final float maxExtrapolationTime) {
+        this.maxExtrapolationTime = maxExtrapolationTime;
+    }
+
+}
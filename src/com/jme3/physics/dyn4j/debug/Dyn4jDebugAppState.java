@@ -31,8 +31,9 @@
  */
 package com.jme3.physics.dyn4j.debug;
 
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,6 +47,7 @@ import com.jme3.app.state.AppStateManager;
 import com.jme3.asset.AssetManager;
 import com.jme3.material.Material;
 import com.jme3.physics.dyn4j.PhysicsSpace;
+import com.jme3.physics.dyn4j.PhysicsSpaceListener;
 import com.jme3.physics.dyn4j.debug.control.Dyn4jBodyDebugControl;
 import com.jme3.renderer.RenderManager;
 import com.jme3.renderer.ViewPort;
@@ -71,6 +73,54 @@ public class Dyn4jDebugAppState extends AbstractAppState {
 
     protected Dyn4jDebugShapeFactory debugShapeFactory = null;
 
+    // Batched line rendering
+    protected boolean batched = false;
+    protected Dyn4jDebugLineBatch lineBatch = null;
+
+    // Material swaps of the debug controls, see materialChanged().
+    protected long materialChangeCount = 0;
+
+    /** A body or joint added to or removed from the physics space, applied on the next update. */
+    private static final class Change {
+
+        final Object object;
+        final boolean added;
+
+        Change(final Object object, final boolean added) {
+            this.object = object;
+            this.added = added;
+        }
+
+    }
+
+    // Changes may come from the thread stepping the physics space.
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<Change>();
+    private boolean rebuildNeeded = true;
+
+    private final PhysicsSpaceListener spaceListener = new PhysicsSpaceListener() {
+
+        @Override
+        public void bodyAdded(final Body body) {
+            Dyn4jDebugAppState.this.changes.add(new Change(body, true));
+        }
+
+        @Override
+        public void bodyRemoved(final Body body) {
+            Dyn4jDebugAppState.this.changes.add(new Change(body, false));
+        }
+
+        @Override
+        public void jointAdded(final Joint joint) {
+            Dyn4jDebugAppState.this.changes.add(new Change(joint, true));
+        }
+
+        @Override
+        public void jointRemoved(final Joint joint) {
+            Dyn4jDebugAppState.this.changes.add(new Change(joint, false));
+        }
+
+    };
+
     public Dyn4jDebugAppState(final PhysicsSpace space) {
         this.space = space;
     }
@@ -86,10 +136,16 @@ public class Dyn4jDebugAppState extends AbstractAppState {
         this.viewPort.setClearFlags(false, true, false);
         this.viewPort.attachScene(this.physicsDebugRootNode);
         this.debugShapeFactory = new Dyn4jDebugShapeFactory(app.getAssetManager());
+
+        // Everything added before is picked up by the first rebuild.
+        this.space.addListener(this.spaceListener);
+        this.rebuildNeeded = true;
     }
 
     @Override
     public void cleanup() {
+        this.space.removeListener(this.spaceListener);
+        this.changes.clear();
         this.rm.removeMainView(this.viewPort);
         super.cleanup();
     }
@@ -98,9 +154,24 @@ public class Dyn4jDebugAppState extends AbstractAppState {
     public void update(final float tpf) {
         super.update(tpf);
 
-        // Update all object links
-        updateRigidBodies();
-        updateJoints();
+        if (this.batched) {
+            updateLineBatch();
+        } else {
+            if (this.lineBatch != null) {
+                this.lineBatch.getNode().removeFromParent();
+            }
+
+            // Update all object links
+            applyChanges();
+
+            // Bodies and joints can also be changed directly in the dyn4j world, only noticed by their count.
+            if (this.rebuildNeeded || this.bodies.size() != this.space.getBodyCount()
+                    || this.joints.size() != this.space.getJointCount()) {
+                updateRigidBodies();
+                updateJoints();
+                this.rebuildNeeded = false;
+            }
+        }
 
         // Update debug root node
         this.physicsDebugRootNode.updateLogicalState(tpf);
@@ -115,13 +186,102 @@ public class Dyn4jDebugAppState extends AbstractAppState {
         }
     }
 
+    private void updateLineBatch() {
+        // No spatial per object while batched, they are rebuilt when batching is turned off.
+        if (!this.bodies.isEmpty() || !this.joints.isEmpty()) {
+            for (final Spatial spatial : this.bodies.values()) {
+                removeBodySpatial(spatial);
+            }
+            for (final Spatial spatial : this.joints.values()) {
+                spatial.removeFromParent();
+            }
+            this.bodies.clear();
+            this.joints.clear();
+        }
+        this.changes.clear();
+        this.rebuildNeeded = true;
+
+        if (this.lineBatch == null) {
+            this.lineBatch = new Dyn4jDebugLineBatch(this.debugShapeFactory);
+        }
+        if (this.lineBatch.getNode().getParent() == null) {
+            this.physicsDebugRootNode.attachChild(this.lineBatch.getNode());
+        }
+
+        this.lineBatch.begin();
+
+        // By index, getBodies() and getJoints() copy the lists of the world.
+        for (int i = 0, size = this.space.getBodyCount(); i < size; i++) {
+            this.lineBatch.drawBody(this.space.getBody(i));
+        }
+
+        for (int i = 0, size = this.space.getJointCount(); i < size; i++) {
+            this.lineBatch.drawJoint(this.space.getJoint(i));
+        }
+
+        this.lineBatch.end();
+    }
+
+    private void applyChanges() {
+        Change change;
+        while ((change = this.changes.poll()) != null) {
+            if (change.object instanceof Body) {
+                final Body body = (Body) change.object;
+                if (change.added) {
+                    if (!this.bodies.containsKey(body)) {
+                        this.bodies.put(body, createBodySpatial(body));
+                    }
+                } else {
+                    final Spatial spatial = this.bodies.remove(body);
+                    if (spatial != null) {
+                        removeBodySpatial(spatial);
+                    }
+                }
+            } else {
+                final Joint joint = (Joint) change.object;
+                if (change.added) {
+                    if (!this.joints.containsKey(joint)) {
+                        this.joints.put(joint, createJointSpatial(joint));
+                    }
+                } else {
+                    final Spatial spatial = this.joints.remove(joint);
+                    if (spatial != null) {
+                        spatial.removeFromParent();
+                    }
+                }
+            }
+        }
+    }
+
+    private Spatial createBodySpatial(final Body body) {
+        // if (filter == null || filter.displayObject(physicsObject)) {
+        logger.log(Level.FINE, "Create new debug RigidBody");
+        // Create new spatial
+        final Node node = new Node(body.getId().toString());
+        node.addControl(new Dyn4jBodyDebugControl(this, body));
+        this.physicsDebugRootNode.attachChild(node);
+        // }
+        return node;
+    }
+
+    private Spatial createJointSpatial(final Joint joint) {
+        // if (filter == null || filter.displayObject(physicsObject)) {
+        logger.log(Level.FINE, "Create new debug Joint");
+        // Create new spatial
+        final Node node = new Node(joint.toString());
+        node.addControl(this.debugShapeFactory.getJointDebugControl(this, joint));
+        this.physicsDebugRootNode.attachChild(node);
+        // }
+        return node;
+    }
+
     private void updateRigidBodies() {
         final HashMap<Body, Spatial> oldBodies = this.bodies;
         this.bodies = new HashMap<Body, Spatial>();
-        final Collection<Body> currentBodies = this.space.getBodies();
 
         // Create new map of bodies
-        for (final Body body : currentBodies) {
+        for (int i = 0, size = this.space.getBodyCount(); i < size; i++) {
+            final Body body = this.space.getBody(i);
 
             if (oldBodies.containsKey(body)) {
 
@@ -132,31 +292,32 @@ public class Dyn4jDebugAppState extends AbstractAppState {
 
             } else {
 
-                // if (filter == null || filter.displayObject(physicsObject)) {
-                logger.log(Level.FINE, "Create new debug RigidBody");
-                // Create new spatial
-                final Node node = new Node(body.getId().toString());
-                node.addControl(new Dyn4jBodyDebugControl(this, body));
-                this.bodies.put(body, node);
-                this.physicsDebugRootNode.attachChild(node);
-                // }
+                this.bodies.put(body, createBodySpatial(body));
 
             }
         }
 
         // Remove leftover spatials
         for (final Spatial spatial : oldBodies.values()) {
-            spatial.removeFromParent();
+            removeBodySpatial(spatial);
+        }
+    }
+
+    private void removeBodySpatial(final Spatial spatial) {
+        final Dyn4jBodyDebugControl control = spatial.getControl(Dyn4jBodyDebugControl.class);
+        if (control != null) {
+            control.releaseDebugShapes();
         }
+        spatial.removeFromParent();
     }
 
     private void updateJoints() {
         final HashMap<Joint, Spatial> oldObjects = this.joints;
         this.joints = new HashMap<Joint, Spatial>();
-        final Collection<Joint> currentJoints = this.space.getJoints();
 
         // Create new map of joints
-        for (final Joint joint : currentJoints) {
+        for (int i = 0, size = this.space.getJointCount(); i < size; i++) {
+            final Joint joint = this.space.getJoint(i);
 
             if (oldObjects.containsKey(joint)) {
 
@@ -167,14 +328,7 @@ public class Dyn4jDebugAppState extends AbstractAppState {
 
             } else {
 
-                // if (filter == null || filter.displayObject(physicsObject)) {
-                logger.log(Level.FINE, "Create new debug Joint");
-                // Create new spatial
-                final Node node = new Node(joint.toString());
-                node.addControl(this.debugShapeFactory.getJointDebugControl(this, joint));
-                this.joints.put(joint, node);
-                this.physicsDebugRootNode.attachChild(node);
-                // }
+                this.joints.put(joint, createJointSpatial(joint));
 
             }
         }
@@ -185,6 +339,22 @@ public class Dyn4jDebugAppState extends AbstractAppState {
         }
     }
 
+    /**
+     * Enables the batched rendering: the whole debug view is drawn in one line mesh per color, see
+     * {@link Dyn4jDebugLineBatch}, instead of spatials per body, fixture and joint. Meant for large scenes; the shapes
+     * are drawn as outlines only.
+     * 
+     * @param batched
+     *            true to draw the debug view in batch.
+     */
+    public void setBatched(final boolean batched) {
+        this.batched = batched;
+    }
+
+    public boolean isBatched() {
+        return this.batched;
+    }
+
     public Material getDebugMaterial(final PhysicDebugColor physicDebugColor) {
         return this.debugShapeFactory.getDebugMaterial(physicDebugColor);
     }
@@ -193,4 +363,28 @@ public class Dyn4jDebugAppState extends AbstractAppState {
         return this.debugShapeFactory.getDebugShape(shape);
     }
 
+    public void releaseDebugShape(final Node node) {
+        this.debugShapeFactory.releaseDebugShape(node);
+    }
+
+    /**
+     * Called by the debug controls when a body or joint changes state and its materials are swapped.
+     */
+    public void materialChanged() {
+        this.materialChangeCount++;
+    }
+
+    /**
+     * Returns the number of material swaps done by the debug controls since the last reset, for profiling.
+     * 
+     * @return the material change count.
+     */
+    public long getMaterialChangeCount() {
+        return this.materialChangeCount;
+    }
+
+    public void resetMaterialChangeCount() {
+        this.materialChangeCount = 0;
+    }
+
 }
@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.debug;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.dynamics.BodyFixture;
+import org.dyn4j.dynamics.joint.DistanceJoint;
+import org.dyn4j.dynamics.joint.Joint;
+import org.dyn4j.dynamics.joint.MouseJoint;
+import org.dyn4j.dynamics.joint.PrismaticJoint;
+import org.dyn4j.dynamics.joint.PulleyJoint;
+import org.dyn4j.dynamics.joint.RevoluteJoint;
+import org.dyn4j.dynamics.joint.RopeJoint;
+import org.dyn4j.dynamics.joint.WeldJoint;
+import org.dyn4j.dynamics.joint.WheelJoint;
+import org.dyn4j.geometry.Convex;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+import org.dyn4j.geometry.Wound;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.FastMath;
+import com.jme3.physics.dyn4j.Converter;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial.CullHint;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.VertexBuffer.Type;
+import com.jme3.util.BufferUtils;
+
+/**
+ * Draws the whole debug view of a frame as line lists, one dynamic mesh and one draw call per
+ * {@link PhysicDebugColor}, instead of spatials and controls per body, fixture and joint. Used by
+ * {@link Dyn4jDebugAppState} when batched rendering is enabled.
+ * <p>
+ * Every frame is written from scratch between {@link #begin()} and {@link #end()}. Vertex buffers are kept and
+ * doubled when a color needs more room, so a steady scene allocates nothing.
+ * 
+ * @author H
+ */
+public class Dyn4jDebugLineBatch {
+
+    private static final int INITIAL_VERTEX_CAPACITY = 1024;
+    private static final int CIRCLE_SEGMENT_NUMBER = 24;
+    private static final int ANCHOR_SEGMENT_NUMBER = 8;
+    private static final float ANCHOR_SIZE = 0.1f;
+    private static final float AXIS_LENGTH = 0.25f;
+
+    protected final Node node = new Node("Physics Debug Lines");
+
+    private final Mesh[] meshes;
+    private final Geometry[] geometries;
+    private final FloatBuffer[] positions;
+    private final int[] vertexCounts;
+    private final float[] bounds;
+
+    // Outline of each shape in its local space, as x, y pairs.
+    private final Map<Convex, float[]> outlines = new WeakHashMap<Convex, float[]>();
+
+    private final Vector2 unitX = new Vector2(1, 0);
+    private final Vector2 axis = new Vector2();
+
+    public Dyn4jDebugLineBatch(final Dyn4jDebugShapeFactory debugShapeFactory) {
+        final PhysicDebugColor[] colors = PhysicDebugColor.values();
+        this.meshes = new Mesh[colors.length];
+        this.geometries = new Geometry[colors.length];
+        this.positions = new FloatBuffer[colors.length];
+        this.vertexCounts = new int[colors.length];
+        this.bounds = new float[colors.length * 4];
+
+        for (final PhysicDebugColor color : colors) {
+            final int i = color.ordinal();
+            final Mesh mesh = new Mesh();
+            mesh.setMode(Mesh.Mode.Lines);
+            this.positions[i] = BufferUtils.createFloatBuffer(INITIAL_VERTEX_CAPACITY * 3);
+            mesh.setBuffer(Type.Position, 3, this.positions[i]);
+            mesh.getBuffer(Type.Position).setUsage(VertexBuffer.Usage.Stream);
+            this.meshes[i] = mesh;
+
+            final Geometry geometry = new Geometry("Physics Debug Lines " + color.name(), mesh);
+            geometry.setMaterial(debugShapeFactory.getDebugMaterial(color));
+            geometry.setModelBound(new BoundingBox());
+            this.geometries[i] = geometry;
+            this.node.attachChild(geometry);
+        }
+    }
+
+    public Node getNode() {
+        return this.node;
+    }
+
+    /**
+     * Starts a new frame, dropping the lines of the previous one.
+     */
+    public void begin() {
+        for (int i = 0; i < this.vertexCounts.length; i++) {
+            this.vertexCounts[i] = 0;
+            this.positions[i].clear();
+            this.bounds[i * 4] = Float.POSITIVE_INFINITY;
+            this.bounds[i * 4 + 1] = Float.POSITIVE_INFINITY;
+            this.bounds[i * 4 + 2] = Float.NEGATIVE_INFINITY;
+            this.bounds[i * 4 + 3] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Hands the lines of the frame to the meshes.
+     */
+    public void end() {
+        for (int i = 0; i < this.meshes.length; i++) {
+            final Geometry geometry = this.geometries[i];
+            final int vertexCount = this.vertexCounts[i];
+
+            if (vertexCount == 0) {
+                geometry.setCullHint(CullHint.Always);
+                continue;
+            }
+            geometry.setCullHint(CullHint.Inherit);
+
+            final FloatBuffer buffer = this.positions[i];
+            buffer.flip();
+            final Mesh mesh = this.meshes[i];
+            mesh.getBuffer(Type.Position).updateData(buffer);
+            mesh.updateCounts();
+
+            // Bound from the extremes tracked while writing, cheaper than reading the buffer back.
+            final BoundingBox bound = (BoundingBox) mesh.getBound();
+            final int offset = i * 4;
+            bound.getCenter().set((this.bounds[offset] + this.bounds[offset + 2]) * 0.5f,
+                    (this.bounds[offset + 1] + this.bounds[offset + 3]) * 0.5f, 0);
+            bound.setXExtent((this.bounds[offset + 2] - this.bounds[offset]) * 0.5f);
+            bound.setYExtent((this.bounds[offset + 3] - this.bounds[offset + 1]) * 0.5f);
+            bound.setZExtent(0);
+            geometry.setModelBound(bound);
+        }
+    }
+
+    /**
+     * Adds a line.
+     * 
+     * @param color
+     *            the color.
+     * @param x1
+     *            the x of the start.
+     * @param y1
+     *            the y of the start.
+     * @param x2
+     *            the x of the end.
+     * @param y2
+     *            the y of the end.
+     */
+    public void line(final PhysicDebugColor color, final float x1, final float y1, final float x2, final float y2) {
+        final int i = color.ordinal();
+        FloatBuffer buffer = this.positions[i];
+        if (buffer.remaining() < 6) {
+            buffer = grow(i);
+        }
+        buffer.put(x1).put(y1).put(0).put(x2).put(y2).put(0);
+        this.vertexCounts[i] += 2;
+
+        final int offset = i * 4;
+        final float[] bounds = this.bounds;
+        bounds[offset] = Math.min(bounds[offset], Math.min(x1, x2));
+        bounds[offset + 1] = Math.min(bounds[offset + 1], Math.min(y1, y2));
+        bounds[offset + 2] = Math.max(bounds[offset + 2], Math.max(x1, x2));
+        bounds[offset + 3] = Math.max(bounds[offset + 3], Math.max(y1, y2));
+    }
+
+    private FloatBuffer grow(final int i) {
+        final FloatBuffer previous = this.positions[i];
+        final FloatBuffer buffer = BufferUtils.createFloatBuffer(previous.capacity() * 2);
+        previous.flip();
+        buffer.put(previous);
+        this.positions[i] = buffer;
+        this.meshes[i].setBuffer(Type.Position, 3, buffer);
+        return buffer;
+    }
+
+    /**
+     * Adds the outline of the fixtures of a body and their origin axes, colored by the body state.
+     * 
+     * @param body
+     *            the body.
+     */
+    public void drawBody(final Body body) {
+        final PhysicDebugColor color;
+        if (body.isAsleep()) {
+            color = PhysicDebugColor.BLUE;
+        } else if (!body.isActive()) {
+            color = PhysicDebugColor.GRAY;
+        } else {
+            color = PhysicDebugColor.MAGENTA;
+        }
+
+        final Transform transform = body.getTransform();
+        transform.getTransformedR(this.unitX, this.axis);
+        final float cos = Converter.toFloat(this.axis.x);
+        final float sin = Converter.toFloat(this.axis.y);
+        final float tx = Converter.toFloat(transform.getTranslationX());
+        final float ty = Converter.toFloat(transform.getTranslationY());
+
+        final List<BodyFixture> fixtures = body.getFixtures();
+        for (int f = 0, size = fixtures.size(); f < size; f++) {
+            final Convex shape = fixtures.get(f).getShape();
+            final float[] outline = getOutline(shape);
+
+            // Closed loop, except for segments.
+            final int pointCount = outline.length / 2;
+            final int lineCount = pointCount > 2 ? pointCount : pointCount - 1;
+            for (int p = 0; p < lineCount; p++) {
+                final int q = (p + 1) % pointCount;
+                final float x1 = outline[p * 2], y1 = outline[p * 2 + 1];
+                final float x2 = outline[q * 2], y2 = outline[q * 2 + 1];
+                line(color, x1 * cos - y1 * sin + tx, x1 * sin + y1 * cos + ty, x2 * cos - y2 * sin + tx,
+                        x2 * sin + y2 * cos + ty);
+            }
+
+            // Origin axes at the shape center.
+            final Vector2 center = shape.getCenter();
+            final float cx = Converter.toFloat(center.x) * cos - Converter.toFloat(center.y) * sin + tx;
+            final float cy = Converter.toFloat(center.x) * sin + Converter.toFloat(center.y) * cos + ty;
+            line(PhysicDebugColor.RED, cx, cy, cx + AXIS_LENGTH * cos, cy + AXIS_LENGTH * sin);
+            line(PhysicDebugColor.GREEN, cx, cy, cx - AXIS_LENGTH * sin, cy + AXIS_LENGTH * cos);
+        }
+    }
+
+    private float[] getOutline(final Convex shape) {
+        float[] outline = this.outlines.get(shape);
+        if (outline != null) {
+            return outline;
+        }
+
+        if (shape instanceof Wound) {
+            final Vector2[] vertices = ((Wound) shape).getVertices();
+            outline = new float[vertices.length * 2];
+            for (int i = 0; i < vertices.length; i++) {
+                outline[i * 2] = Converter.toFloat(vertices[i].x);
+                outline[i * 2 + 1] = Converter.toFloat(vertices[i].y);
+            }
+        } else {
+            // Round shapes: sample their support points, which follows any convex outline.
+            outline = new float[CIRCLE_SEGMENT_NUMBER * 2];
+            final Vector2 direction = new Vector2();
+            for (int i = 0; i < CIRCLE_SEGMENT_NUMBER; i++) {
+                final double theta = FastMath.TWO_PI * i / CIRCLE_SEGMENT_NUMBER;
+                direction.set(Math.cos(theta), Math.sin(theta));
+                final Vector2 point = shape.getFarthestPoint(direction, Transform.IDENTITY);
+                outline[i * 2] = Converter.toFloat(point.x);
+                outline[i * 2 + 1] = Converter.toFloat(point.y);
+            }
+        }
+
+        this.outlines.put(shape, outline);
+        return outline;
+    }
+
+    /**
+     * Adds the line between the anchors of a joint and marks on the anchors, with the colors of the joint debug
+     * controls.
+     * 
+     * @param joint
+     *            the joint.
+     */
+    public void drawJoint(final Joint joint) {
+        final boolean active = joint.isActive();
+
+        if (joint instanceof PulleyJoint) {
+            final PulleyJoint pulleyJoint = (PulleyJoint) joint;
+            final PhysicDebugColor lineColor = active ? PhysicDebugColor.ORANGE : PhysicDebugColor.PINK;
+            final PhysicDebugColor anchorColor = active ? PhysicDebugColor.GREEN : PhysicDebugColor.PINK_FILLED;
+
+            final Vector2 p1 = pulleyJoint.getAnchor1();
+            final Vector2 p2 = pulleyJoint.getPulleyAnchor1();
+            final Vector2 p3 = pulleyJoint.getPulleyAnchor2();
+            final Vector2 p4 = pulleyJoint.getAnchor2();
+            line(lineColor, p1, p2);
+            line(lineColor, p2, p3);
+            line(lineColor, p3, p4);
+            circle(anchorColor, p1);
+            cross(anchorColor, p2);
+            cross(anchorColor, p3);
+            circle(anchorColor, p4);
+            return;
+        }
+
+        final Vector2 p1 = joint.getAnchor1();
+        if (joint instanceof WeldJoint) {
+            cross(active ? PhysicDebugColor.YELLOW : PhysicDebugColor.PINK_FILLED, p1);
+            return;
+        } else if (joint instanceof RevoluteJoint) {
+            circle(active ? PhysicDebugColor.YELLOW : PhysicDebugColor.PINK_FILLED, p1);
+            return;
+        }
+
+        final Vector2 p2 = joint.getAnchor2();
+        if (joint instanceof MouseJoint) {
+            line(active ? PhysicDebugColor.RED : PhysicDebugColor.PINK, p1, p2);
+            square(active ? PhysicDebugColor.BROWN_FILLED : PhysicDebugColor.PINK_FILLED, p1);
+            square(active ? PhysicDebugColor.BROWN_FILLED : PhysicDebugColor.PINK_FILLED, p2);
+        } else if (joint instanceof PrismaticJoint) {
+            line(active ? PhysicDebugColor.BROWN_FILLED : PhysicDebugColor.PINK, p1, p2);
+            square(active ? PhysicDebugColor.ORANGE : PhysicDebugColor.PINK_FILLED, p1);
+            square(active ? PhysicDebugColor.ORANGE : PhysicDebugColor.PINK_FILLED, p2);
+        } else if (joint instanceof RopeJoint) {
+            line(active ? PhysicDebugColor.GREEN : PhysicDebugColor.PINK, p1, p2);
+            circle(active ? PhysicDebugColor.BROWN_FILLED : PhysicDebugColor.PINK_FILLED, p1);
+            circle(active ? PhysicDebugColor.BROWN_FILLED : PhysicDebugColor.PINK_FILLED, p2);
+        } else if (joint instanceof WheelJoint) {
+            line(active ? PhysicDebugColor.GREEN : PhysicDebugColor.PINK, p1, p2);
+            square(active ? PhysicDebugColor.YELLOW : PhysicDebugColor.PINK_FILLED, p1);
+            circle(active ? PhysicDebugColor.YELLOW : PhysicDebugColor.PINK_FILLED, p2);
+        } else {
+            // Distance joints and the default look of the other joints.
+            line(active ? PhysicDebugColor.YELLOW : PhysicDebugColor.PINK, p1, p2);
+            if (joint instanceof DistanceJoint) {
+                circle(active ? PhysicDebugColor.ORANGE : PhysicDebugColor.PINK_FILLED, p1);
+                circle(active ? PhysicDebugColor.ORANGE : PhysicDebugColor.PINK_FILLED, p2);
+            }
+        }
+    }
+
+    private void line(final PhysicDebugColor color, final Vector2 p1, final Vector2 p2) {
+        line(color, Converter.toFloat(p1.x), Converter.toFloat(p1.y), Converter.toFloat(p2.x),
+                Converter.toFloat(p2.y));
+    }
+
+    private void circle(final PhysicDebugColor color, final Vector2 center) {
+        final float cx = Converter.toFloat(center.x);
+        final float cy = Converter.toFloat(center.y);
+        final float step = FastMath.TWO_PI / ANCHOR_SEGMENT_NUMBER;
+        for (int i = 0; i < ANCHOR_SEGMENT_NUMBER; i++) {
+            line(color, cx + ANCHOR_SIZE * FastMath.cos(i * step), cy + ANCHOR_SIZE * FastMath.sin(i * step), cx
+                    + ANCHOR_SIZE * FastMath.cos((i + 1) * step), cy + ANCHOR_SIZE * FastMath.sin((i + 1) * step));
+        }
+    }
+
+    private void square(final PhysicDebugColor color, final Vector2 center) {
+        final float cx = Converter.toFloat(center.x);
+        final float cy = Converter.toFloat(center.y);
+        final float size = ANCHOR_SIZE;
+        line(color, cx - size, cy - size, cx + size, cy - size);
+        line(color, cx + size, cy - size, cx + size, cy + size);
+        line(color, cx + size, cy + size, cx - size, cy + size);
+        line(color, cx - size, cy + size, cx - size, cy - size);
+    }
+
+    private void cross(final PhysicDebugColor color, final Vector2 center) {
+        final float cx = Converter.toFloat(center.x);
+        final float cy = Converter.toFloat(center.y);
+        line(color, cx - ANCHOR_SIZE, cy - ANCHOR_SIZE, cx + ANCHOR_SIZE, cy + ANCHOR_SIZE);
+        line(color, cx - ANCHOR_SIZE, cy + ANCHOR_SIZE, cx + ANCHOR_SIZE, cy - ANCHOR_SIZE);
+    }
+
+    /**
+     * Returns the number of vertices written for a color in the current frame.
+     * 
+     * @param color
+     *            the color.
+     * @return the vertex count.
+     */
+    public int getVertexCount(final PhysicDebugColor color) {
+        return this.vertexCounts[color.ordinal()];
+    }
+
+}
@@ -31,7 +31,13 @@
  */
 package com.jme3.physics.dyn4j.debug;
 
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -73,9 +79,11 @@ import com.jme3.physics.dyn4j.debug.shape.HalfEllipseDebug;
 import com.jme3.physics.dyn4j.debug.shape.SliceDebug;
 import com.jme3.physics.dyn4j.debug.shape.WoundDebug;
 import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
 import com.jme3.scene.debug.Arrow;
+import com.jme3.util.BufferUtils;
 
 /**
  * 
@@ -87,8 +95,71 @@ public class Dyn4jDebugShapeFactory {
 
     private static final Logger logger = Logger.getLogger(Dyn4jDebugShapeFactory.class.getName());
 
+    private static final float AXIS_LENGTH = 0.25f;
+    private static final int DEFAULT_MAX_UNUSED_MESHES = 256;
+    private static final double MESH_KEY_QUANTUM = 1e-4;
+
     protected Map<PhysicDebugColor, Material> debugMaterials = null;
 
+    /** Type and quantized dimensions of a shape, shapes with equal keys share their mesh. */
+    private static final class MeshKey {
+
+        static final int WOUND = 0;
+        static final int CIRCLE = 1;
+        static final int CAPSULE = 2;
+        static final int ELLIPSE = 3;
+        static final int HALF_ELLIPSE = 4;
+        static final int SLICE = 5;
+
+        final int type;
+        final int[] values;
+        final int hash;
+
+        MeshKey(final int type, final int[] values) {
+            this.type = type;
+            this.values = values;
+            this.hash = 31 * type + Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof MeshKey)) {
+                return false;
+            }
+            final MeshKey other = (MeshKey) obj;
+            return this.type == other.type && Arrays.equals(this.values, other.values);
+        }
+
+    }
+
+    private static final class CachedMesh {
+
+        final MeshKey key;
+        final Mesh mesh;
+        int references = 0;
+
+        CachedMesh(final MeshKey key, final Mesh mesh) {
+            this.key = key;
+            this.mesh = mesh;
+        }
+
+    }
+
+    // Shape meshes by key, the meshes no longer used in release order.
+    private final Map<MeshKey, CachedMesh> meshCache = new HashMap<MeshKey, CachedMesh>();
+    private final Map<Mesh, CachedMesh> cachedMeshes = new IdentityHashMap<Mesh, CachedMesh>();
+    private final LinkedHashMap<MeshKey, CachedMesh> unusedMeshes = new LinkedHashMap<MeshKey, CachedMesh>();
+    protected int maxUnusedMeshes = DEFAULT_MAX_UNUSED_MESHES;
+
+    // Shared by the origin axes of all the shapes.
+    private final Arrow xAxisMesh = new Arrow(Vector3f.UNIT_X.mult(AXIS_LENGTH));
+    private final Arrow yAxisMesh = new Arrow(Vector3f.UNIT_Y.mult(AXIS_LENGTH));
+
     public Dyn4jDebugShapeFactory(final AssetManager assetManager) {
         this.debugMaterials = new HashMap<PhysicDebugColor, Material>();
 
@@ -105,26 +176,137 @@ public class Dyn4jDebugShapeFactory {
         this.debugMaterials.put(physicDebugColor, mat);
     }
 
+    /**
+     * Returns a new node with the debug geometry of the shape and its origin axes. Meshes are shared by shapes of the
+     * same type and dimensions, the node must be given back with {@link #releaseDebugShape(Node)} when it is dropped.
+     * 
+     * @param shape
+     *            the shape.
+     * @return the node.
+     */
     public Node getDebugShape(final Convex shape) {
 
         final Node node = new Node(shape.getId().toString());
         node.attachChild(createOriginAxes(shape.getCenter()));
 
+        final Mesh mesh = acquireMesh(shape);
+        if (mesh != null) {
+            final Geometry geometry = new Geometry(shape.getId().toString(), mesh);
+            if (shape instanceof Ellipse) {
+                // Circle of unit diameter, shared by all the ellipses.
+                final Ellipse ellipse = (Ellipse) shape;
+                geometry.scale(Converter.toFloat(ellipse.getWidth()), Converter.toFloat(ellipse.getHeight()), 1);
+            }
+            node.attachChild(geometry);
+        } else {
+            logger.warning(String.format("#### Shape '%s' not supported. ####", shape.getClass().getSimpleName()));
+        }
+
+        return node;
+    }
+
+    /**
+     * Gives back the meshes of a node returned by {@link #getDebugShape(Convex)}. Meshes no longer used are kept for a
+     * while, up to {@link #getMaxUnusedMeshes()}, in case the same shape comes back.
+     * 
+     * @param node
+     *            the node.
+     */
+    public void releaseDebugShape(final Node node) {
+        final List<Spatial> children = node.getChildren();
+        for (int i = 0, size = children.size(); i < size; i++) {
+            final Spatial child = children.get(i);
+            if (child instanceof Geometry) {
+                releaseMesh(((Geometry) child).getMesh());
+            }
+        }
+    }
+
+    private Mesh acquireMesh(final Convex shape) {
+        final MeshKey key = createMeshKey(shape);
+        if (key == null) {
+            return null;
+        }
+
+        CachedMesh cached = this.meshCache.get(key);
+        if (cached == null) {
+            cached = new CachedMesh(key, createMesh(shape));
+            this.meshCache.put(key, cached);
+            this.cachedMeshes.put(cached.mesh, cached);
+        }
+        if (cached.references++ == 0) {
+            this.unusedMeshes.remove(key);
+        }
+        return cached.mesh;
+    }
+
+    private void releaseMesh(final Mesh mesh) {
+        final CachedMesh cached = this.cachedMeshes.get(mesh);
+        if (cached == null || cached.references == 0) {
+            return;
+        }
+
+        if (--cached.references == 0) {
+            this.unusedMeshes.put(cached.key, cached);
+            final Iterator<CachedMesh> iterator = this.unusedMeshes.values().iterator();
+            while (this.unusedMeshes.size() > this.maxUnusedMeshes) {
+                // Evict the meshes unused for the longest time.
+                final CachedMesh evicted = iterator.next();
+                iterator.remove();
+                this.meshCache.remove(evicted.key);
+                this.cachedMeshes.remove(evicted.mesh);
+            }
+        }
+    }
+
+    private static MeshKey createMeshKey(final Convex shape) {
         if (shape instanceof Wound) {
-            final Wound wound = (Wound) shape;
+            final Vector2[] vertices = ((Wound) shape).getVertices();
+            final int[] values = new int[vertices.length * 2];
+            for (int i = 0; i < vertices.length; i++) {
+                values[i * 2] = quantize(vertices[i].x);
+                values[i * 2 + 1] = quantize(vertices[i].y);
+            }
+            return new MeshKey(MeshKey.WOUND, values);
+        } else if (shape instanceof Circle) {
+            return new MeshKey(MeshKey.CIRCLE, new int[] { quantize(((Circle) shape).getRadius()) });
+        } else if (shape instanceof Capsule) {
+            final Capsule capsule = (Capsule) shape;
+            return new MeshKey(MeshKey.CAPSULE, new int[] { quantize(capsule.getLength()),
+                    quantize(capsule.getCapRadius()) });
+        } else if (shape instanceof Ellipse) {
+            return new MeshKey(MeshKey.ELLIPSE, new int[0]);
+        } else if (shape instanceof HalfEllipse) {
+            final HalfEllipse halfEllipse = (HalfEllipse) shape;
+            return new MeshKey(MeshKey.HALF_ELLIPSE, new int[] { quantize(halfEllipse.getHalfWidth()),
+                    quantize(halfEllipse.getHeight()) });
+        } else if (shape instanceof Slice) {
+            final Slice slice = (Slice) shape;
+            return new MeshKey(MeshKey.SLICE, new int[] { quantize(slice.getSliceRadius()), quantize(slice.getTheta()) });
+        }
+        return null;
+    }
+
+    private static int quantize(final double value) {
+        return (int) Math.round(value / MESH_KEY_QUANTUM);
+    }
+
+    private Mesh createMesh(final Convex shape) {
+        final Mesh mesh;
 
-            final Vector3f[] vertices = Converter.toVector3f(wound.getVertices());
-            final WoundDebug woundDebug = new WoundDebug(vertices);
+        if (shape instanceof Wound) {
+            final Wound wound = (Wound) shape;
 
-            node.attachChild(new Geometry(shape.getId().toString(), woundDebug));
+            final Vector2[] vertices = wound.getVertices();
+            final FloatBuffer positions = BufferUtils.createVector3Buffer(vertices.length);
+            Converter.toFloatBuffer(vertices, positions).flip();
+            mesh = new WoundDebug(positions);
 
         } else if (shape instanceof Circle) {
             final Circle circle = (Circle) shape;
 
             final float radius = Converter.toFloat(circle.getRadius());
-            final CircleDebug circleDebug = new CircleDebug(radius, CIRCLE_SEGMENT_NUMBER);
-
-            node.attachChild(new Geometry(shape.getId().toString(), circleDebug));
+            mesh = new CircleDebug(radius, CIRCLE_SEGMENT_NUMBER);
 
         } else if (shape instanceof Capsule) {
             final Capsule capsule = (Capsule) shape;
@@ -132,21 +314,11 @@ public class Dyn4jDebugShapeFactory {
             final float width = Converter.toFloat(capsule.getLength());
             final float height = Converter.toFloat(capsule.getCapRadius());
 
-            final CapsuleDebug capsuleDebug = new CapsuleDebug(width, height, CIRCLE_SEGMENT_NUMBER);
-            final Geometry capsuleGeom = new Geometry(shape.getId().toString(), capsuleDebug);
-            node.attachChild(capsuleGeom);
+            mesh = new CapsuleDebug(width, height, CIRCLE_SEGMENT_NUMBER);
 
         } else if (shape instanceof Ellipse) {
-            final Ellipse ellipse = (Ellipse) shape;
-
-            final float scaleX = Converter.toFloat(ellipse.getWidth());
-            final float scaleY = Converter.toFloat(ellipse.getHeight());
-
-            final CircleDebug ellipseDebug = new CircleDebug(CIRCLE_SEGMENT_NUMBER, 1);
-
-            final Geometry ellipseGeom = new Geometry(shape.getId().toString(), ellipseDebug);
-            ellipseGeom.scale(scaleX, scaleY, 1);
-            node.attachChild(ellipseGeom);
+            // Circle of unit diameter, scaled by the full width and height of each ellipse.
+            mesh = new CircleDebug(0.5f, CIRCLE_SEGMENT_NUMBER);
 
         } else if (shape instanceof HalfEllipse) {
             final HalfEllipse halfEllipse = (HalfEllipse) shape;
@@ -156,28 +328,42 @@ public class Dyn4jDebugShapeFactory {
 
             // the height of Dyn4j's halfEllipse is the radius on y axis.
             final float height = Converter.toFloat(halfEllipse.getHeight());
-            final HalfEllipseDebug halfEllipseDebug = new HalfEllipseDebug(width, height, CIRCLE_SEGMENT_NUMBER / 2);
-
-            final Geometry halfEllipseGeom = new Geometry(shape.getId().toString(), halfEllipseDebug);
-            node.attachChild(halfEllipseGeom);
+            mesh = new HalfEllipseDebug(width, height, CIRCLE_SEGMENT_NUMBER / 2);
 
-        } else if (shape instanceof Slice) {
+        } else {
             final Slice slice = (Slice) shape;
 
             final float radius = Converter.toFloat(slice.getSliceRadius());
             final float angle = Converter.toFloat(slice.getTheta());
             final int segmentNumber = Math.round(angle * CIRCLE_SEGMENT_NUMBER / FastMath.TWO_PI);
 
-            final SliceDebug sliceDebug = new SliceDebug(radius, angle, segmentNumber);
+            mesh = new SliceDebug(radius, angle, segmentNumber);
+        }
 
-            final Geometry sliceGeom = new Geometry(shape.getId().toString(), sliceDebug);
-            node.attachChild(sliceGeom);
+        return mesh;
+    }
 
-        } else {
-            logger.warning(String.format("#### Shape '%s' not supported. ####", shape.getClass().getSimpleName()));
-        }
+    /**
+     * Sets how many meshes no longer used are kept in the cache.
+     * 
+     * @param maxUnusedMeshes
+     *            the maximum number of unused meshes.
+     */
+    public void setMaxUnusedMeshes(final int maxUnusedMeshes) {
+        this.maxUnusedMeshes = maxUnusedMeshes;
+    }
 
-        return node;
+    public int getMaxUnusedMeshes() {
+        return this.maxUnusedMeshes;
+    }
+
+    /**
+     * Returns the number of meshes in the cache, used or not.
+     * 
+     * @return the cached mesh count.
+     */
+    public int getCachedMeshCount() {
+        return this.meshCache.size();
     }
 
     public Material getDebugMaterial(final PhysicDebugColor physicDebugColor) {
@@ -212,15 +398,14 @@ public class Dyn4jDebugShapeFactory {
 
     private Node createOriginAxes(final Vector2 center) {
         final Node node = new Node("Origin");
-        node.attachChild(createAxisArrow(Vector3f.UNIT_X.mult(.25f), PhysicDebugColor.RED));
-        node.attachChild(createAxisArrow(Vector3f.UNIT_Y.mult(.25f), PhysicDebugColor.GREEN));
+        node.attachChild(createAxisArrow(this.xAxisMesh, PhysicDebugColor.RED));
+        node.attachChild(createAxisArrow(this.yAxisMesh, PhysicDebugColor.GREEN));
         node.setLocalTranslation(Converter.toVector3f(center));
 
         return node;
     }
 
-    private Spatial createAxisArrow(final Vector3f direction, final PhysicDebugColor color) {
-        final Arrow axis = new Arrow(direction);
+    private Spatial createAxisArrow(final Arrow axis, final PhysicDebugColor color) {
 
         final Geometry axisGeomg = new Geometry("axis", axis);
         axisGeomg.setMaterial(getDebugMaterial(color));
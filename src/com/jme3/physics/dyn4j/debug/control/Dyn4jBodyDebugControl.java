@@ -32,10 +32,7 @@
 package com.jme3.physics.dyn4j.debug.control;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
 
 import org.dyn4j.dynamics.Body;
 import org.dyn4j.dynamics.BodyFixture;
@@ -55,12 +52,21 @@ import com.jme3.scene.Spatial;
  */
 public class Dyn4jBodyDebugControl extends Dyn4jBodyControl {
 
+    private static final int STATE_UNKNOWN = -1;
+    private static final int STATE_ASLEEP = 0;
+    private static final int STATE_INACTIVE = 1;
+    private static final int STATE_ACTIVE = 2;
+
     protected Dyn4jDebugAppState dyn4jDebugAppState = null;
 
-    protected Map<UUID, Convex> shapes = new HashMap<UUID, Convex>();
-    protected Map<UUID, Node> geometries = new HashMap<UUID, Node>();
+    // Shapes of the body's fixtures, in fixture order, and their debug nodes at the same index.
+    protected List<Convex> shapes = new ArrayList<Convex>();
+    protected List<Node> geometries = new ArrayList<Node>();
     protected Node spatialAsNode = null;
 
+    // Body state the materials were last set for.
+    protected int debugState = STATE_UNKNOWN;
+
     public Dyn4jBodyDebugControl(final Dyn4jDebugAppState dyn4jDebugAppState, final Body body) {
         super(body);
         this.dyn4jDebugAppState = dyn4jDebugAppState;
@@ -77,12 +83,12 @@ public class Dyn4jBodyDebugControl extends Dyn4jBodyControl {
     public void setSpatial(final Spatial spatial) {
         if (spatial != null && spatial instanceof Node) {
             this.spatialAsNode = (Node) spatial;
-            for (final Node node : this.geometries.values()) {
-                this.spatialAsNode.attachChild(node);
+            for (int i = 0, size = this.geometries.size(); i < size; i++) {
+                this.spatialAsNode.attachChild(this.geometries.get(i));
             }
         } else if (spatial == null && this.spatial != null) {
-            for (final Node node : this.geometries.values()) {
-                this.spatialAsNode.detachChild(node);
+            for (int i = 0, size = this.geometries.size(); i < size; i++) {
+                this.spatialAsNode.detachChild(this.geometries.get(i));
             }
         }
         super.setSpatial(spatial);
@@ -90,60 +96,132 @@ public class Dyn4jBodyDebugControl extends Dyn4jBodyControl {
 
     @Override
     protected void controlUpdate(final float tpf) {
-        final List<UUID> currentIDs = new ArrayList<UUID>();
-        final List<Node> currentGeoms = new ArrayList<Node>();
-
-        for (final BodyFixture bodyFixture : this.body.getFixtures()) {
-            final Convex shape = bodyFixture.getShape();
-
-            currentIDs.add(shape.getId());
-
-            if (!this.shapes.containsKey(shape.getId())) {
+        final List<BodyFixture> fixtures = this.body.getFixtures();
+        if (fixturesChanged(fixtures)) {
+            updateFixtures(fixtures);
+        }
 
-                // New fixture: create spatial for the shape, add it to geometry list and attach to the root spatial.
-                final Node node = processShape(shape);
-                currentGeoms.add(node);
-            }
+        // Set Material according to body state, only when it changes.
+        final int state;
+        if (this.body.isAsleep()) {
+            state = STATE_ASLEEP;
+        } else if (!this.body.isActive()) {
+            state = STATE_INACTIVE;
+        } else {
+            state = STATE_ACTIVE;
+        }
 
+        if (state != this.debugState) {
+            this.debugState = state;
+            updateMaterial(state);
         }
 
-        // Remove shapes that are not present on the body's features list.
-        this.shapes.keySet().retainAll(currentIDs);
-        this.geometries.keySet().retainAll(currentIDs);
-        this.spatialAsNode.detachAllChildren();
+        // Update spatial location and rotation
+        super.controlUpdate(tpf);
+    }
 
-        // Set Material according to body state
+    @Override
+    protected void controlRender(final RenderManager rm, final ViewPort vp) {
+    }
+
+    private void updateMaterial(final int state) {
         final Material material;
-        if (this.body.isAsleep()) {
+        if (state == STATE_ASLEEP) {
             material = this.dyn4jDebugAppState.getDebugMaterial(PhysicDebugColor.BLUE);
-        } else if (!this.body.isActive()) {
+        } else if (state == STATE_INACTIVE) {
             material = this.dyn4jDebugAppState.getDebugMaterial(PhysicDebugColor.GRAY);
         } else {
             material = this.dyn4jDebugAppState.getDebugMaterial(PhysicDebugColor.MAGENTA);
         }
 
-        for (final Node node : this.geometries.values()) {
-            this.spatialAsNode.attachChild(node);
+        for (int i = 0, size = this.geometries.size(); i < size; i++) {
+            final Node node = this.geometries.get(i);
 
             final Spatial geom = node.getChild(node.getName());
             if (geom != null) {
                 geom.setMaterial(material);
             }
         }
+        this.dyn4jDebugAppState.materialChanged();
+    }
 
-        // Update spatial location and rotation
-        super.controlUpdate(tpf);
+    private boolean fixturesChanged(final List<BodyFixture> fixtures) {
+        final int size = fixtures.size();
+        if (size != this.shapes.size()) {
+            return true;
+        }
+        for (int i = 0; i < size; i++) {
+            if (fixtures.get(i).getShape() != this.shapes.get(i)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    @Override
-    protected void controlRender(final RenderManager rm, final ViewPort vp) {
+    private void updateFixtures(final List<BodyFixture> fixtures) {
+        final List<Convex> oldShapes = this.shapes;
+        final List<Node> oldGeometries = this.geometries;
+        this.shapes = new ArrayList<Convex>(fixtures.size());
+        this.geometries = new ArrayList<Node>(fixtures.size());
+
+        for (int i = 0, size = fixtures.size(); i < size; i++) {
+            final Convex shape = fixtures.get(i).getShape();
+            final int index = indexOf(oldShapes, shape);
+            if (index >= 0) {
+
+                // Kept fixture: move its node to the new list.
+                this.shapes.add(shape);
+                this.geometries.add(oldGeometries.get(index));
+                oldShapes.set(index, null);
+
+            } else {
+
+                // New fixture: create spatial for the shape, add it to geometry list and attach to the root spatial.
+                final Node node = processShape(shape);
+                if (this.spatialAsNode != null) {
+                    this.spatialAsNode.attachChild(node);
+                }
+
+                // The new node has no material yet.
+                this.debugState = STATE_UNKNOWN;
+            }
+        }
+
+        // Remove shapes that are not present on the body's features list.
+        for (int i = 0, size = oldShapes.size(); i < size; i++) {
+            if (oldShapes.get(i) != null) {
+                final Node node = oldGeometries.get(i);
+                node.removeFromParent();
+                this.dyn4jDebugAppState.releaseDebugShape(node);
+            }
+        }
+    }
+
+    private static int indexOf(final List<Convex> shapes, final Convex shape) {
+        for (int i = 0, size = shapes.size(); i < size; i++) {
+            if (shapes.get(i) == shape) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gives back the shared meshes of all the fixtures, called when the debug spatial of the body is dropped.
+     */
+    public void releaseDebugShapes() {
+        for (int i = 0, size = this.geometries.size(); i < size; i++) {
+            this.dyn4jDebugAppState.releaseDebugShape(this.geometries.get(i));
+        }
+        this.shapes.clear();
+        this.geometries.clear();
     }
 
     private Node processShape(final Convex shape) {
         final Node node = this.dyn4jDebugAppState.getDebugShape(shape);
 
-        this.shapes.put(shape.getId(), shape);
-        this.geometries.put(shape.getId(), node);
+        this.shapes.add(shape);
+        this.geometries.add(node);
 
         return node;
     }
@@ -35,6 +35,13 @@ public abstract class Dyn4jJointDebugControl extends AbstractControl {
 
     protected Node geometry = null;
 
+    // Joint state the materials were last set for: -1 until the first update, then 1 if active and 0 if not.
+    protected int debugState = -1;
+
+    // Anchors converted on every update.
+    protected final Vector3f anchor1 = new Vector3f();
+    protected final Vector3f anchor2 = new Vector3f();
+
     public Dyn4jJointDebugControl(final Dyn4jDebugAppState dyn4jDebugAppState, final Joint joint) {
         this.dyn4jDebugAppState = dyn4jDebugAppState;
         this.joint = joint;
@@ -55,26 +62,52 @@ public abstract class Dyn4jJointDebugControl extends AbstractControl {
 
     @Override
     protected void controlUpdate(final float tpf) {
-        final Vector3f p1 = Converter.toVector3f(this.joint.getAnchor1());
-        final Vector3f p2 = Converter.toVector3f(this.joint.getAnchor2());
+        final Vector3f p1 = Converter.toVector3f(this.joint.getAnchor1(), this.anchor1);
+        final Vector3f p2 = Converter.toVector3f(this.joint.getAnchor2(), this.anchor2);
+
+        final boolean active = this.joint.isActive();
+        final boolean stateChanged = updateDebugState(active);
 
         if (this.lineGeom != null) {
             final Mesh mesh = this.lineGeom.getMesh();
             if (mesh instanceof Line) {
                 ((Line) mesh).updatePoints(p1, p2);
             }
-            this.lineGeom.setMaterial(getLineGeomMaterial(this.joint.isActive()));
+            if (stateChanged) {
+                this.lineGeom.setMaterial(getLineGeomMaterial(active));
+            }
         }
 
         if (this.anchorGeom1 != null) {
             this.anchorGeom1.setLocalTranslation(p1);
-            this.anchorGeom1.setMaterial(getAnchorGeom1Material(this.joint.isActive()));
+            if (stateChanged) {
+                this.anchorGeom1.setMaterial(getAnchorGeom1Material(active));
+            }
         }
 
         if (this.anchorGeom2 != null) {
             this.anchorGeom2.setLocalTranslation(p2);
-            this.anchorGeom2.setMaterial(getAnchorGeom2Material(this.joint.isActive()));
+            if (stateChanged) {
+                this.anchorGeom2.setMaterial(getAnchorGeom2Material(active));
+            }
+        }
+    }
+
+    /**
+     * Remembers the joint state and tells whether the materials must be set again.
+     * 
+     * @param active
+     *            true if the joint is active.
+     * @return true if the state changed since the last update.
+     */
+    protected boolean updateDebugState(final boolean active) {
+        final int state = active ? 1 : 0;
+        if (state == this.debugState) {
+            return false;
         }
+        this.debugState = state;
+        this.dyn4jDebugAppState.materialChanged();
+        return true;
     }
 
     @Override
@@ -17,6 +17,10 @@ public class Dyn4jPulleyJointDebugControl extends Dyn4jJointDebugControl {
     protected Geometry pulleyAnchorGeom1 = null;
     protected Geometry pulleyAnchorGeom2 = null;
 
+    // Pulley anchors converted on every update.
+    protected final Vector3f pulleyAnchor1 = new Vector3f();
+    protected final Vector3f pulleyAnchor2 = new Vector3f();
+
     public Dyn4jPulleyJointDebugControl(final Dyn4jDebugAppState dyn4jDebugAppState, final PulleyJoint pulleyJoint) {
         super(dyn4jDebugAppState, pulleyJoint);
 
@@ -39,34 +43,34 @@ public class Dyn4jPulleyJointDebugControl extends Dyn4jJointDebugControl {
     public void update(final float tpf) {
         final PulleyJoint pulleyJoint = (PulleyJoint) this.joint;
 
-        final Vector3f p1 = Converter.toVector3f(pulleyJoint.getAnchor1());
-        final Vector3f p2 = Converter.toVector3f(pulleyJoint.getPulleyAnchor1());
-        final Vector3f p3 = Converter.toVector3f(pulleyJoint.getPulleyAnchor2());
-        final Vector3f p4 = Converter.toVector3f(pulleyJoint.getAnchor2());
-
-        final Material anchorGeomMaterial = getAnchorGeom1Material(this.joint.isActive());
-        final Material lineGeomMaterial = getLineGeomMaterial(this.joint.isActive());
+        final Vector3f p1 = Converter.toVector3f(pulleyJoint.getAnchor1(), this.anchor1);
+        final Vector3f p2 = Converter.toVector3f(pulleyJoint.getPulleyAnchor1(), this.pulleyAnchor1);
+        final Vector3f p3 = Converter.toVector3f(pulleyJoint.getPulleyAnchor2(), this.pulleyAnchor2);
+        final Vector3f p4 = Converter.toVector3f(pulleyJoint.getAnchor2(), this.anchor2);
 
         this.anchorGeom1.setLocalTranslation(p1);
-        this.anchorGeom1.setMaterial(anchorGeomMaterial);
-
         this.pulleyAnchorGeom1.setLocalTranslation(p2);
-        this.pulleyAnchorGeom1.setMaterial(anchorGeomMaterial);
-
         this.pulleyAnchorGeom2.setLocalTranslation(p3);
-        this.pulleyAnchorGeom2.setMaterial(anchorGeomMaterial);
-
         this.anchorGeom2.setLocalTranslation(p4);
-        this.anchorGeom2.setMaterial(anchorGeomMaterial);
 
         ((Line) this.lineGeom.getMesh()).updatePoints(p2, p3);
-        this.lineGeom.setMaterial(lineGeomMaterial);
-
         ((Line) this.pulleyLineGeom1.getMesh()).updatePoints(p1, p2);
-        this.pulleyLineGeom1.setMaterial(lineGeomMaterial);
-
         ((Line) this.pulleyLineGeom2.getMesh()).updatePoints(p3, p4);
-        this.pulleyLineGeom2.setMaterial(lineGeomMaterial);
+
+        final boolean active = this.joint.isActive();
+        if (updateDebugState(active)) {
+            final Material anchorGeomMaterial = getAnchorGeom1Material(active);
+            final Material lineGeomMaterial = getLineGeomMaterial(active);
+
+            this.anchorGeom1.setMaterial(anchorGeomMaterial);
+            this.pulleyAnchorGeom1.setMaterial(anchorGeomMaterial);
+            this.pulleyAnchorGeom2.setMaterial(anchorGeomMaterial);
+            this.anchorGeom2.setMaterial(anchorGeomMaterial);
+
+            this.lineGeom.setMaterial(lineGeomMaterial);
+            this.pulleyLineGeom1.setMaterial(lineGeomMaterial);
+            this.pulleyLineGeom2.setMaterial(lineGeomMaterial);
+        }
     }
 
     @Override
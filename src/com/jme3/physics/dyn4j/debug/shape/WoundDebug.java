@@ -71,7 +71,22 @@ public class WoundDebug extends Mesh {
         updateGeometry(vertices);
     }
 
+    /**
+     * Builds a wound from the x, y, z triplets of a position buffer, used as it is.
+     * 
+     * @param positions
+     *            the positions of the vertices, flipped.
+     */
+    public WoundDebug(final FloatBuffer positions) {
+        super();
+        setMode(Mode.LineLoop);
+        updateGeometry(positions);
+    }
+
     public Vector3f[] getVertices() {
+        if (this.vertices == null && getFloatBuffer(Type.Position) != null) {
+            this.vertices = BufferUtils.getVector3Array(getFloatBuffer(Type.Position));
+        }
         return this.vertices;
     }
 
@@ -106,6 +121,27 @@ public class WoundDebug extends Mesh {
         updateBound();
     }
 
+    /**
+     * Rebuilds the wound from a position buffer, without copying it.
+     * 
+     * @param positions
+     *            the x, y, z triplets of the vertices, flipped.
+     */
+    public void updateGeometry(final FloatBuffer positions) {
+        this.vertices = null;
+
+        final int vertexCount = positions.limit() / 3;
+        this.setBuffer(Type.Position, 3, positions);
+        this.setBuffer(Type.Index, 1, BufferUtils.createShortBuffer(getShortBuffer(Type.Index), vertexCount));
+
+        final IndexBuffer ib = getIndexBuffer();
+        for (int i = 0; i < vertexCount; i++) {
+            ib.put(i, i);
+        }
+
+        updateBound();
+    }
+
     /**
      * @see Mesh#read(JmeImporter).
      */
@@ -123,7 +159,7 @@ public class WoundDebug extends Mesh {
     public void write(final JmeExporter e) throws IOException {
         super.write(e);
         final OutputCapsule capsule = e.getCapsule(this);
-        capsule.write(this.vertices, "vertices", null);
+        capsule.write(getVertices(), "vertices", null);
     }
 
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.replication;
+
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.ANGLE;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.ANGULAR_VELOCITY;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.FLAGS;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.FLAG_ASLEEP;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.FLAG_REMOVED;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.STRIDE;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.VELOCITY_X;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.VELOCITY_Y;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.X;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.Y;
+
+import java.nio.ByteBuffer;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.geometry.Transform;
+
+/**
+ * Client side of the body state replication: decodes the packets of a {@link ReplicationEncoder} and keeps the last
+ * known state of each net id. The sequence returned by {@link #decode(ByteBuffer)} must be acknowledged to the server,
+ * which uses it as baseline for the next packets.
+ * <p>
+ * States are read by net id with the getters, or copied to a local body with {@link #applyTo(int, Body)} so a
+ * {@link com.jme3.physics.dyn4j.control.Dyn4jBodyControl} follows it. Nothing is allocated per packet once the
+ * tables have grown to the highest net id.
+ * 
+ * @author H
+ */
+public class ReplicationDecoder {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    protected final float positionPrecision;
+    protected final float velocityPrecision;
+
+    protected final ReplicationTable[] history;
+    protected ReplicationTable current;
+    protected int sequence = 0;
+
+    public ReplicationDecoder() {
+        this(ReplicationEncoder.DEFAULT_POSITION_PRECISION, ReplicationEncoder.DEFAULT_VELOCITY_PRECISION,
+                ReplicationEncoder.DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * @param positionPrecision
+     *            the position precision of the encoder.
+     * @param velocityPrecision
+     *            the velocity precision of the encoder.
+     * @param historySize
+     *            the number of decoded packets kept as baseline, at least the history size of the encoder.
+     */
+    public ReplicationDecoder(final float positionPrecision, final float velocityPrecision, final int historySize) {
+        if (historySize < 2) {
+            throw new IllegalArgumentException("History size must be at least 2.");
+        }
+
+        this.positionPrecision = positionPrecision;
+        this.velocityPrecision = velocityPrecision;
+        this.history = new ReplicationTable[historySize];
+        for (int i = 0; i < historySize; i++) {
+            this.history[i] = new ReplicationTable(INITIAL_CAPACITY);
+        }
+        this.current = this.history[0];
+    }
+
+    /**
+     * Reads a packet at the position of the buffer and makes its state the current one.
+     * 
+     * @param buffer
+     *            the buffer.
+     * @return the sequence of the packet, to be acknowledged, or -1 if the packet is older than the current state or
+     *         its baseline is not known. The buffer position is undefined in that case.
+     */
+    public int decode(final ByteBuffer buffer) {
+        final int packetSequence = ReplicationTable.readVarInt(buffer);
+        final int baselineSequence = ReplicationTable.readVarInt(buffer);
+
+        if (packetSequence <= this.sequence) {
+            // Late or duplicated packet.
+            return -1;
+        }
+
+        final ReplicationTable baseline;
+        if (baselineSequence == 0) {
+            baseline = null;
+        } else {
+            baseline = this.history[baselineSequence % this.history.length];
+            if (baseline.sequence != baselineSequence || packetSequence - baselineSequence >= this.history.length) {
+                return -1;
+            }
+        }
+
+        final ReplicationTable table = this.history[packetSequence % this.history.length];
+        if (baseline != null) {
+            table.copy(baseline);
+        } else {
+            table.clear();
+        }
+        table.sequence = packetSequence;
+
+        final int count = buffer.getInt();
+        int netId = -1;
+        for (int i = 0; i < count; i++) {
+            netId += ReplicationTable.readVarInt(buffer) + 1;
+            final int flags = buffer.get();
+
+            table.ensureCapacity(netId + 1);
+            final int[] values = table.values;
+            final int offset = netId * STRIDE;
+            if (netId >= table.size) {
+                table.size = netId + 1;
+            }
+
+            if ((flags & FLAG_REMOVED) != 0) {
+                for (int v = 0; v < STRIDE; v++) {
+                    values[offset + v] = 0;
+                }
+                continue;
+            }
+
+            final boolean hadBase = (values[offset + FLAGS] & ReplicationTable.FLAG_PRESENT) != 0;
+            if (!hadBase) {
+                for (int v = X; v < STRIDE; v++) {
+                    values[offset + v] = 0;
+                }
+            }
+
+            values[offset + FLAGS] = flags;
+            values[offset + X] += ReplicationTable.readVarInt(buffer);
+            values[offset + Y] += ReplicationTable.readVarInt(buffer);
+            values[offset + ANGLE] = (values[offset + ANGLE] + ReplicationTable.readVarInt(buffer)) & 0xFFFF;
+            values[offset + VELOCITY_X] += ReplicationTable.readVarInt(buffer);
+            values[offset + VELOCITY_Y] += ReplicationTable.readVarInt(buffer);
+            values[offset + ANGULAR_VELOCITY] += ReplicationTable.readVarInt(buffer);
+        }
+
+        this.current = table;
+        this.sequence = packetSequence;
+        return packetSequence;
+    }
+
+    /**
+     * Returns true if the body with the given net id is in the current state.
+     * 
+     * @param netId
+     *            the net id.
+     * @return true if its state is known.
+     */
+    public boolean contains(final int netId) {
+        return netId >= 0 && this.current.isPresent(netId);
+    }
+
+    public float getX(final int netId) {
+        return this.current.values[netId * STRIDE + X] * this.positionPrecision;
+    }
+
+    public float getY(final int netId) {
+        return this.current.values[netId * STRIDE + Y] * this.positionPrecision;
+    }
+
+    public float getAngle(final int netId) {
+        return ReplicationTable.dequantizeAngle(this.current.values[netId * STRIDE + ANGLE]);
+    }
+
+    public float getLinearVelocityX(final int netId) {
+        return this.current.values[netId * STRIDE + VELOCITY_X] * this.velocityPrecision;
+    }
+
+    public float getLinearVelocityY(final int netId) {
+        return this.current.values[netId * STRIDE + VELOCITY_Y] * this.velocityPrecision;
+    }
+
+    public float getAngularVelocity(final int netId) {
+        return this.current.values[netId * STRIDE + ANGULAR_VELOCITY] * this.velocityPrecision;
+    }
+
+    public boolean isAsleep(final int netId) {
+        return (this.current.values[netId * STRIDE + FLAGS] & FLAG_ASLEEP) != 0;
+    }
+
+    /**
+     * Copies the current state of a net id to a local body: transform and velocities.
+     * 
+     * @param netId
+     *            the net id.
+     * @param body
+     *            the body.
+     * @return false if the state of the net id is not known.
+     */
+    public boolean applyTo(final int netId, final Body body) {
+        if (!contains(netId)) {
+            return false;
+        }
+
+        final Transform transform = body.getTransform();
+        transform.setRotation(getAngle(netId));
+        transform.setTranslation(getX(netId), getY(netId));
+        body.setLinearVelocity(getLinearVelocityX(netId), getLinearVelocityY(netId));
+        body.setAngularVelocity(getAngularVelocity(netId));
+        return true;
+    }
+
+    /**
+     * Returns the sequence of the current state.
+     * 
+     * @return the sequence, 0 before the first packet.
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+
+}
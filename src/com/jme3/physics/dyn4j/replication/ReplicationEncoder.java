@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.replication;
+
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.ANGLE;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.ANGULAR_VELOCITY;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.FLAGS;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.FLAG_ASLEEP;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.FLAG_PRESENT;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.FLAG_REMOVED;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.STRIDE;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.VELOCITY_X;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.VELOCITY_Y;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.X;
+import static com.jme3.physics.dyn4j.replication.ReplicationTable.Y;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.dyn4j.dynamics.Body;
+import org.dyn4j.geometry.Transform;
+import org.dyn4j.geometry.Vector2;
+
+/**
+ * Server side of the body state replication. Bodies are registered with a net id shared with the clients, the state
+ * of all of them is captured once per tick with {@link #capture()}, and a packet is encoded for each client with
+ * {@link #encode(ByteBuffer, int)} against the last sequence the client acknowledged.
+ * <p>
+ * Packets only hold the bodies whose quantized state changed since that sequence, so sleeping and resting bodies cost
+ * nothing once the client has them, and each value is written as a variable length delta. Positions and velocities
+ * are quantized with the given precisions and angles with 16 bits. Nothing is allocated per tick once the tables have
+ * grown to the highest net id.
+ * <p>
+ * Must be used from the thread that steps the physics space, after the step.
+ * 
+ * @author H
+ */
+public class ReplicationEncoder {
+
+    public static final float DEFAULT_POSITION_PRECISION = 0.001f;
+    public static final float DEFAULT_VELOCITY_PRECISION = 0.01f;
+    public static final int DEFAULT_HISTORY_SIZE = 32;
+
+    /** Largest size of an entry: net id, flags and six values. */
+    static final int MAX_ENTRY_SIZE = 5 + 1 + 6 * 5;
+    static final int HEADER_SIZE = 5 + 5 + 4;
+
+    private static final ReplicationTable EMPTY = new ReplicationTable(1);
+
+    protected final float positionScale;
+    protected final float velocityScale;
+
+    protected Body[] bodies = new Body[64];
+    protected int netIdCount = 0;
+
+    protected final ReplicationTable[] history;
+    protected int sequence = 0;
+
+    public ReplicationEncoder() {
+        this(DEFAULT_POSITION_PRECISION, DEFAULT_VELOCITY_PRECISION, DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * @param positionPrecision
+     *            the smallest position change sent, in world units. Must be the same in the decoder.
+     * @param velocityPrecision
+     *            the smallest linear and angular velocity change sent. Must be the same in the decoder.
+     * @param historySize
+     *            the number of captured ticks that can be used as baseline. Must not be greater than the history of
+     *            the decoders.
+     */
+    public ReplicationEncoder(final float positionPrecision, final float velocityPrecision, final int historySize) {
+        if (positionPrecision <= 0 || velocityPrecision <= 0) {
+            throw new IllegalArgumentException("Precisions must be greater than zero.");
+        }
+        if (historySize < 2) {
+            throw new IllegalArgumentException("History size must be at least 2.");
+        }
+
+        this.positionScale = 1f / positionPrecision;
+        this.velocityScale = 1f / velocityPrecision;
+        this.history = new ReplicationTable[historySize];
+        for (int i = 0; i < historySize; i++) {
+            this.history[i] = new ReplicationTable(this.bodies.length);
+        }
+    }
+
+    /**
+     * Replicates the body with the given net id, from the next capture.
+     * 
+     * @param body
+     *            the body.
+     * @param netId
+     *            the id of the body on the clients, small and non negative.
+     */
+    public void register(final Body body, final int netId) {
+        if (netId < 0) {
+            throw new IllegalArgumentException("Net id must not be negative.");
+        }
+        if (netId >= this.bodies.length) {
+            this.bodies = Arrays.copyOf(this.bodies, Math.max(netId + 1, this.bodies.length * 2));
+        }
+        if (this.bodies[netId] != null && this.bodies[netId] != body) {
+            throw new IllegalStateException("Net id " + netId + " is already registered.");
+        }
+
+        this.bodies[netId] = body;
+        this.netIdCount = Math.max(this.netIdCount, netId + 1);
+    }
+
+    /**
+     * Stops replicating the body with the given net id. The clients are told to remove it in the next packets.
+     * 
+     * @param netId
+     *            the net id.
+     */
+    public void unregister(final int netId) {
+        if (netId >= 0 && netId < this.netIdCount) {
+            this.bodies[netId] = null;
+        }
+    }
+
+    public Body getBody(final int netId) {
+        return netId >= 0 && netId < this.netIdCount ? this.bodies[netId] : null;
+    }
+
+    /**
+     * Quantizes the state of all registered bodies as a new sequence.
+     * 
+     * @return the sequence of the captured state.
+     */
+    public int capture() {
+        this.sequence++;
+
+        final ReplicationTable table = this.history[this.sequence % this.history.length];
+        table.clear();
+        table.ensureCapacity(this.netIdCount);
+        table.sequence = this.sequence;
+        table.size = this.netIdCount;
+
+        final int[] values = table.values;
+        for (int netId = 0; netId < this.netIdCount; netId++) {
+            final Body body = this.bodies[netId];
+            if (body == null) {
+                continue;
+            }
+
+            final Transform transform = body.getTransform();
+            final Vector2 velocity = body.getLinearVelocity();
+            final int offset = netId * STRIDE;
+
+            values[offset + FLAGS] = FLAG_PRESENT | (body.isAsleep() ? FLAG_ASLEEP : 0);
+            values[offset + X] = (int) Math.round(transform.getTranslationX() * this.positionScale);
+            values[offset + Y] = (int) Math.round(transform.getTranslationY() * this.positionScale);
+            values[offset + ANGLE] = ReplicationTable.quantizeAngle(transform.getRotation());
+            values[offset + VELOCITY_X] = (int) Math.round(velocity.x * this.velocityScale);
+            values[offset + VELOCITY_Y] = (int) Math.round(velocity.y * this.velocityScale);
+            values[offset + ANGULAR_VELOCITY] = (int) Math.round(body.getAngularVelocity() * this.velocityScale);
+        }
+
+        return this.sequence;
+    }
+
+    /**
+     * Returns true if the sequence can still be used as baseline.
+     * 
+     * @param baselineSequence
+     *            the sequence.
+     * @return true if it is in the history.
+     */
+    public boolean hasSequence(final int baselineSequence) {
+        return baselineSequence > 0 && baselineSequence <= this.sequence
+                && this.sequence - baselineSequence < this.history.length;
+    }
+
+    /**
+     * Writes the last captured state at the position of the buffer, as changes from the baseline sequence.
+     * 
+     * @param buffer
+     *            the buffer, with at least {@link #getMaxPacketSize()} bytes remaining.
+     * @param baselineSequence
+     *            the last sequence acknowledged by the client, or 0 (or any sequence no longer in the history) to
+     *            send the full state.
+     * @return the number of bodies written.
+     */
+    public int encode(final ByteBuffer buffer, final int baselineSequence) {
+        final ReplicationTable current = this.history[this.sequence % this.history.length];
+        final ReplicationTable baseline;
+        if (hasSequence(baselineSequence)) {
+            baseline = this.history[baselineSequence % this.history.length];
+        } else {
+            baseline = EMPTY;
+        }
+
+        ReplicationTable.writeVarInt(buffer, this.sequence);
+        ReplicationTable.writeVarInt(buffer, baseline == EMPTY ? 0 : baselineSequence);
+        final int countPosition = buffer.position();
+        buffer.putInt(0);
+
+        final int[] values = current.values;
+        final int[] baseValues = baseline.values;
+        final int size = Math.max(current.size, baseline.size);
+        int previousNetId = -1;
+        int count = 0;
+
+        for (int netId = 0; netId < size; netId++) {
+            final boolean present = current.isPresent(netId);
+            final boolean basePresent = baseline.isPresent(netId);
+
+            if (present && basePresent && current.equals(netId, baseline)) {
+                continue;
+            }
+            if (!present && !basePresent) {
+                continue;
+            }
+
+            ReplicationTable.writeVarInt(buffer, netId - previousNetId - 1);
+            previousNetId = netId;
+            count++;
+
+            if (!present) {
+                buffer.put((byte) FLAG_REMOVED);
+                continue;
+            }
+
+            final int offset = netId * STRIDE;
+            buffer.put((byte) values[offset + FLAGS]);
+            if (basePresent) {
+                ReplicationTable.writeVarInt(buffer, values[offset + X] - baseValues[offset + X]);
+                ReplicationTable.writeVarInt(buffer, values[offset + Y] - baseValues[offset + Y]);
+                // Wrapped, the shortest way around.
+                ReplicationTable.writeVarInt(buffer, (short) (values[offset + ANGLE] - baseValues[offset + ANGLE]));
+                ReplicationTable.writeVarInt(buffer, values[offset + VELOCITY_X] - baseValues[offset + VELOCITY_X]);
+                ReplicationTable.writeVarInt(buffer, values[offset + VELOCITY_Y] - baseValues[offset + VELOCITY_Y]);
+                ReplicationTable.writeVarInt(buffer, values[offset + ANGULAR_VELOCITY]
+                        - baseValues[offset + ANGULAR_VELOCITY]);
+            } else {
+                for (int i = X; i < STRIDE; i++) {
+                    ReplicationTable.writeVarInt(buffer, values[offset + i]);
+                }
+            }
+        }
+
+        buffer.putInt(countPosition, count);
+        return count;
+    }
+
+    /**
+     * Returns the largest size of a packet with the bodies registered now.
+     * 
+     * @return the size in bytes.
+     */
+    public int getMaxPacketSize() {
+        return HEADER_SIZE + this.netIdCount * MAX_ENTRY_SIZE;
+    }
+
+    /**
+     * Returns the sequence of the last capture.
+     * 
+     * @return the sequence, 0 before the first capture.
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+
+    public float getPositionPrecision() {
+        return 1f / this.positionScale;
+    }
+
+    public float getVelocityPrecision() {
+        return 1f / this.velocityScale;
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2009-2014 jMonkeyEngine
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * * Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ *
+ * * Neither the name of 'jMonkeyEngine' nor the names of its contributors
+ *   may be used to endorse or promote products derived from this software
+ *   without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.jme3.physics.dyn4j.replication;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.jme3.math.FastMath;
+
+/**
+ * Quantized body states of one replication snapshot, indexed by net id. Shared by {@link ReplicationEncoder} and
+ * {@link ReplicationDecoder}, with the helpers of the wire format.
+ * 
+ * @author H
+ */
+final class ReplicationTable {
+
+    static final int STRIDE = 7;
+    static final int FLAGS = 0;
+    static final int X = 1;
+    static final int Y = 2;
+    static final int ANGLE = 3;
+    static final int VELOCITY_X = 4;
+    static final int VELOCITY_Y = 5;
+    static final int ANGULAR_VELOCITY = 6;
+
+    static final int FLAG_PRESENT = 1;
+    static final int FLAG_ASLEEP = 2;
+    static final int FLAG_REMOVED = 4;
+
+    static final float ANGLE_SCALE = 65536f / FastMath.TWO_PI;
+
+    int sequence = 0;
+    int[] values;
+    int size = 0;
+
+    ReplicationTable(final int capacity) {
+        this.values = new int[Math.max(capacity, 1) * STRIDE];
+    }
+
+    void ensureCapacity(final int netIdCount) {
+        if (netIdCount * STRIDE > this.values.length) {
+            this.values = Arrays.copyOf(this.values, Math.max(netIdCount, this.values.length / STRIDE * 2) * STRIDE);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(this.values, 0, this.size * STRIDE, 0);
+        this.size = 0;
+        this.sequence = 0;
+    }
+
+    void copy(final ReplicationTable other) {
+        ensureCapacity(other.size);
+        System.arraycopy(other.values, 0, this.values, 0, other.size * STRIDE);
+        if (this.size > other.size) {
+            Arrays.fill(this.values, other.size * STRIDE, this.size * STRIDE, 0);
+        }
+        this.size = other.size;
+        this.sequence = other.sequence;
+    }
+
+    boolean isPresent(final int netId) {
+        return netId < this.size && (this.values[netId * STRIDE + FLAGS] & FLAG_PRESENT) != 0;
+    }
+
+    boolean equals(final int netId, final ReplicationTable other) {
+        final int offset = netId * STRIDE;
+        for (int i = 0; i < STRIDE; i++) {
+            if (this.values[offset + i] != other.values[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int quantizeAngle(final double angle) {
+        return (int) Math.round(angle * ANGLE_SCALE) & 0xFFFF;
+    }
+
+    static float dequantizeAngle(final int angle) {
+        final float value = angle / ANGLE_SCALE;
+        return value > FastMath.PI ? value - FastMath.TWO_PI : value;
+    }
+
+    static void writeVarInt(final ByteBuffer buffer, final int value) {
+        // Zig zag, so small negative values take a single byte too.
+        int remaining = (value << 1) ^ (value >> 31);
+        while ((remaining & ~0x7F) != 0) {
+            buffer.put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        buffer.put((byte) remaining);
+    }
+
+    static int readVarInt(final ByteBuffer buffer) {
+        int result = 0;
+        int shift = 0;
+        int read;
+        do {
+            read = buffer.get();
+            result |= (read & 0x7F) << shift;
+            shift += 7;
+        } while ((read & 0x80) != 0);
+        return (result >>> 1) ^ -(result & 1);
+    }
+
+}